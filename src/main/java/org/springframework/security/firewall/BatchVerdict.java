@@ -0,0 +1,100 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.BitSet;
+
+/**
+ * The result of validating a {@link RequestBatch}: which requests were rejected and the
+ * {@link RejectionRule} that rejected each of them.
+ *
+ * @see Gh8644StrictHttpFirewall#validate(RequestBatch)
+ * @since 5.4
+ */
+public final class BatchVerdict {
+	private final int size;
+
+	private final BitSet rejected;
+
+	private final byte[] reasons;
+
+	BatchVerdict(int size) {
+		this.size = size;
+		this.rejected = new BitSet(size);
+		this.reasons = new byte[size];
+	}
+
+	/**
+	 * @return the number of requests in the batch
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param index the index of the request within the batch
+	 * @return true if the request was rejected
+	 */
+	public boolean isRejected(int index) {
+		return this.rejected.get(index);
+	}
+
+	/**
+	 * @param index the index of the request within the batch
+	 * @return the rule that rejected the request, or {@code null} if it was not rejected
+	 */
+	public RejectionRule getRule(int index) {
+		return RejectionRule.fromCode(this.reasons[index]);
+	}
+
+	/**
+	 * @return the number of rejected requests
+	 */
+	public int getRejectedCount() {
+		return this.rejected.cardinality();
+	}
+
+	/**
+	 * @return a copy of the set of indexes of rejected requests
+	 */
+	public BitSet getRejected() {
+		return (BitSet) this.rejected.clone();
+	}
+
+	/**
+	 * @return a copy of the reason codes, one for each request, as given by
+	 * {@link RejectionRule#code()}, or {@code 0} if the request was not rejected
+	 */
+	public byte[] getReasonCodes() {
+		return this.reasons.clone();
+	}
+
+	/**
+	 * @param from the index to start from
+	 * @return the index of the next request that has not yet been rejected, or
+	 * {@link #size()} if there is none
+	 */
+	int nextAccepted(int from) {
+		return this.rejected.nextClearBit(from);
+	}
+
+	void reject(int index, RejectionRule rule) {
+		this.rejected.set(index);
+		this.reasons[index] = rule.code();
+	}
+}
@@ -0,0 +1,256 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Finds which of many blocklisted tokens a value contains, in time that depends on the
+ * number of distinct token lengths rather than the number of tokens.
+ * </p>
+ * <p>
+ * Tokens are grouped by length. For each length, a Rabin-Karp rolling hash is computed
+ * for every window of the value, and each window hash is first checked against a Bloom
+ * filter of the group's token hashes. Only the windows that the filter lets through are
+ * looked up in a table of the tokens and compared character by character.
+ * </p>
+ * <p>
+ * Matchers interned from the same tokens are shared through {@link SharedRuleTables}, so
+ * that firewalls with the same large blocklist build and hold it once.
+ * </p>
+ */
+final class BlocklistMatcher {
+	private static final long BASE = 0x100000001b3L;
+
+	private static final int BLOOM_BITS_PER_TOKEN = 16;
+
+	private static final int MAX_BLOOM_BITS = 1 << 21;
+
+	private final String emptyToken;
+
+	private final Group[] groups;
+
+	private final int size;
+
+	BlocklistMatcher(Collection<String> tokens) {
+		Map<Integer, List<String>> byLength = new TreeMap<>();
+		String emptyToken = null;
+		for (String token : tokens) {
+			if (token.isEmpty()) {
+				emptyToken = token;
+			} else {
+				byLength.computeIfAbsent(token.length(), length -> new ArrayList<>()).add(token);
+			}
+		}
+		this.emptyToken = emptyToken;
+		List<Group> groups = new ArrayList<>();
+		byLength.forEach((length, group) -> groups.add(new Group(length, group)));
+		this.groups = groups.toArray(new Group[0]);
+		this.size = tokens.size();
+	}
+
+	/**
+	 * Returns the matcher already built from the same tokens, or else builds a new one
+	 *
+	 * @param tokens the distinct tokens to find
+	 * @return the shared matcher
+	 */
+	static BlocklistMatcher intern(Collection<String> tokens) {
+		String[] sorted = tokens.toArray(new String[0]);
+		Arrays.sort(sorted);
+		SharedRuleTables.Key key = new SharedRuleTables.Key("url-blocklist", sorted.length, Arrays.hashCode(sorted));
+		BlocklistMatcher shared = SharedRuleTables.intern(key, () -> new BlocklistMatcher(tokens));
+		if (shared.builtFrom(sorted)) {
+			return shared;
+		}
+		return new BlocklistMatcher(tokens);
+	}
+
+	/**
+	 * @param value the value to search
+	 * @return a token that the value contains, or {@code null} if it contains none
+	 */
+	String find(String value) {
+		if (this.emptyToken != null) {
+			return this.emptyToken;
+		}
+		for (Group group : this.groups) {
+			if (value.length() < group.length) {
+				return null;
+			}
+			String token = group.find(value);
+			if (token != null) {
+				return token;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether this matcher was built from exactly the given distinct tokens, since keys
+	 * are only a fingerprint of the tokens
+	 */
+	private boolean builtFrom(String[] tokens) {
+		if (this.size != tokens.length) {
+			return false;
+		}
+		for (String token : tokens) {
+			if (!contains(token)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean contains(String token) {
+		if (token.isEmpty()) {
+			return this.emptyToken != null;
+		}
+		for (Group group : this.groups) {
+			if (group.length == token.length()) {
+				return group.contains(token);
+			}
+		}
+		return false;
+	}
+
+	private static long hash(CharSequence value, int from, int length) {
+		long hash = 0;
+		for (int i = from; i < from + length; i++) {
+			hash = hash * BASE + value.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Spreads the bits of a rolling hash, which are poorly mixed in the low bits for short
+	 * windows
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	private static final class Group {
+		private final int length;
+
+		/**
+		 * {@code BASE} to the power of {@code length - 1}, to roll the first character out of
+		 * the window
+		 */
+		private final long leading;
+
+		private final long[] bloom;
+
+		private final int bloomMask;
+
+		private final long[] hashes;
+
+		private final String[] tokens;
+
+		private final int tableMask;
+
+		Group(int length, List<String> tokens) {
+			this.length = length;
+			long leading = 1;
+			for (int i = 1; i < length; i++) {
+				leading *= BASE;
+			}
+			this.leading = leading;
+			int bloomBits = Math.min(tableSize(tokens.size() * BLOOM_BITS_PER_TOKEN), MAX_BLOOM_BITS);
+			this.bloom = new long[Math.max(bloomBits / 64, 1)];
+			this.bloomMask = this.bloom.length * 64 - 1;
+			int tableSize = tableSize(tokens.size() * 2);
+			this.hashes = new long[tableSize];
+			this.tokens = new String[tableSize];
+			this.tableMask = tableSize - 1;
+			for (String token : tokens) {
+				long hash = hash(token, 0, length);
+				long mixed = mix(hash);
+				setBloom((int) mixed);
+				setBloom((int) (mixed >>> 21));
+				setBloom((int) (mixed >>> 42));
+				int slot = (int) mixed & this.tableMask;
+				while (this.tokens[slot] != null) {
+					slot = (slot + 1) & this.tableMask;
+				}
+				this.hashes[slot] = hash;
+				this.tokens[slot] = token;
+			}
+		}
+
+		String find(String value) {
+			int last = value.length() - this.length;
+			long hash = hash(value, 0, this.length);
+			for (int start = 0;; start++) {
+				long mixed = mix(hash);
+				if (inBloom((int) mixed) && inBloom((int) (mixed >>> 21)) && inBloom((int) (mixed >>> 42))) {
+					String token = verify(value, start, hash, (int) mixed & this.tableMask);
+					if (token != null) {
+						return token;
+					}
+				}
+				if (start == last) {
+					return null;
+				}
+				hash = (hash - value.charAt(start) * this.leading) * BASE + value.charAt(start + this.length);
+			}
+		}
+
+		boolean contains(String token) {
+			long hash = hash(token, 0, this.length);
+			return verify(token, 0, hash, (int) mix(hash) & this.tableMask) != null;
+		}
+
+		private String verify(String value, int start, long hash, int slot) {
+			for (String token = this.tokens[slot]; token != null; token = this.tokens[slot]) {
+				if (this.hashes[slot] == hash && value.regionMatches(start, token, 0, this.length)) {
+					return token;
+				}
+				slot = (slot + 1) & this.tableMask;
+			}
+			return null;
+		}
+
+		private void setBloom(int bit) {
+			bit &= this.bloomMask;
+			this.bloom[bit >>> 6] |= 1L << bit;
+		}
+
+		private boolean inBloom(int bit) {
+			bit &= this.bloomMask;
+			return (this.bloom[bit >>> 6] & (1L << bit)) != 0;
+		}
+
+		private static int tableSize(int minimum) {
+			int size = 1;
+			while (size < minimum) {
+				size <<= 1;
+			}
+			return size;
+		}
+	}
+}
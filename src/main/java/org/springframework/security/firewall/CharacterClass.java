@@ -0,0 +1,145 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * <p>
+ * An immutable set of characters, stored as a 128-bit mask of the ASCII characters plus
+ * whether characters beyond ASCII are allowed, so that testing a character is a couple of
+ * bit operations.
+ * </p>
+ *
+ * @see HeaderValueRule
+ * @since 5.4
+ */
+public final class CharacterClass {
+	private static final CharacterClass PRINTABLE_ASCII = range(' ', '~');
+
+	private final long low;
+
+	private final long high;
+
+	private final boolean nonAscii;
+
+	private CharacterClass(long low, long high, boolean nonAscii) {
+		this.low = low;
+		this.high = high;
+		this.nonAscii = nonAscii;
+	}
+
+	/**
+	 * @return the printable ASCII characters, from space {@code ' '} to tilde {@code '~'}
+	 */
+	public static CharacterClass printableAscii() {
+		return PRINTABLE_ASCII;
+	}
+
+	/**
+	 * @param from the first ASCII character in the range
+	 * @param to the last ASCII character in the range, inclusive
+	 * @return the ASCII characters in the range
+	 */
+	public static CharacterClass range(char from, char to) {
+		if (from > to || to > 127) {
+			throw new IllegalArgumentException("from and to must be an ascending range of ASCII characters");
+		}
+		long low = 0;
+		long high = 0;
+		for (char c = from; c <= to; c++) {
+			if (c < 64) {
+				low |= 1L << c;
+			} else {
+				high |= 1L << (c - 64);
+			}
+		}
+		return new CharacterClass(low, high, false);
+	}
+
+	/**
+	 * @param characters the ASCII characters
+	 * @return a class of exactly the given ASCII characters
+	 */
+	public static CharacterClass of(String characters) {
+		long low = 0;
+		long high = 0;
+		for (int i = 0; i < characters.length(); i++) {
+			char c = characters.charAt(i);
+			if (c > 127) {
+				throw new IllegalArgumentException("characters must be ASCII");
+			}
+			if (c < 64) {
+				low |= 1L << c;
+			} else {
+				high |= 1L << (c - 64);
+			}
+		}
+		return new CharacterClass(low, high, false);
+	}
+
+	/**
+	 * @param other another class
+	 * @return a class of the characters in either class
+	 */
+	public CharacterClass or(CharacterClass other) {
+		return new CharacterClass(this.low | other.low, this.high | other.high, this.nonAscii || other.nonAscii);
+	}
+
+	/**
+	 * @param other another class
+	 * @return a class of the characters in both classes
+	 */
+	public CharacterClass and(CharacterClass other) {
+		return new CharacterClass(this.low & other.low, this.high & other.high, this.nonAscii && other.nonAscii);
+	}
+
+	/**
+	 * @return a class that also includes every character beyond ASCII
+	 */
+	public CharacterClass orNonAscii() {
+		return new CharacterClass(this.low, this.high, true);
+	}
+
+	/**
+	 * @param c the character
+	 * @return true if the character is in this class
+	 */
+	public boolean contains(int c) {
+		if (c < 64) {
+			return (this.low & (1L << c)) != 0;
+		}
+		if (c < 128) {
+			return (this.high & (1L << (c - 64))) != 0;
+		}
+		return this.nonAscii;
+	}
+
+	/**
+	 * @param value the value
+	 * @return the index of the first character of the value that is not in this class, or
+	 * -1 if every character is
+	 */
+	public int indexOfFirstNotIn(CharSequence value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			if (!contains(value.charAt(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
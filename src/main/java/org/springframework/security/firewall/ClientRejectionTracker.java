@@ -0,0 +1,235 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>
+ * Tracks how many requests from each client were recently rejected so that
+ * {@link Gh8644StrictHttpFirewall} can reject further requests from a probing client
+ * right after checking the HTTP method, before walking its URL, headers, and parameters.
+ * </p>
+ * <p>
+ * Clients are identified by a key, by default the remote address. Counts are kept in a
+ * fixed-size table, like a count-min sketch, where each key maps to one cell in each of
+ * two rows and its count is the smaller of the two. Each row hashes the characters of the
+ * key with its own random seed, chosen per instance, so that which keys share cells
+ * cannot be predicted, and keys that share a cell in one row are unlikely to share one in
+ * the other. Each cell packs a time bucket and a
+ * count into a single {@code long} that is updated with compare-and-set, so memory stays
+ * bounded no matter how many distinct keys are seen and the request path takes no lock.
+ * When a cell's bucket is older than the current one, its count decays: halved if it is
+ * from the previous bucket, and forgotten if it is any older.
+ * </p>
+ * <p>
+ * Since cells are shared, a client may occasionally be counted with another client that
+ * hashes to the same cells in both rows. Size the table well above the number of clients
+ * that are expected to be rejected within one bucket.
+ * </p>
+ *
+ * @see Gh8644StrictHttpFirewall#setClientRejectionTracker(ClientRejectionTracker)
+ * @since 5.4
+ */
+public final class ClientRejectionTracker {
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final long COUNT_MASK = 0xffffffffL;
+
+	private final int threshold;
+
+	private final long bucketNanos;
+
+	private final int mask;
+
+	private final AtomicLongArray cells;
+
+	private final long firstSeed;
+
+	private final long secondSeed;
+
+	private Function<HttpServletRequest, String> clientKey = HttpServletRequest::getRemoteAddr;
+
+	/**
+	 * Construct a {@link ClientRejectionTracker} with 65536 cells per row
+	 *
+	 * @param threshold the number of recent rejections after which a client is rejected
+	 * outright
+	 * @param bucket how long each time bucket is
+	 * @param unit the unit of the bucket
+	 */
+	public ClientRejectionTracker(int threshold, long bucket, TimeUnit unit) {
+		this(threshold, bucket, unit, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Construct a {@link ClientRejectionTracker}
+	 *
+	 * @param threshold the number of recent rejections after which a client is rejected
+	 * outright
+	 * @param bucket how long each time bucket is
+	 * @param unit the unit of the bucket
+	 * @param capacity the number of cells in each row, rounded up to a power of two
+	 */
+	public ClientRejectionTracker(int threshold, long bucket, TimeUnit unit, int capacity) {
+		if (threshold <= 0) {
+			throw new IllegalArgumentException("threshold must be positive");
+		}
+		if (bucket <= 0) {
+			throw new IllegalArgumentException("bucket must be positive");
+		}
+		if (unit == null) {
+			throw new IllegalArgumentException("unit cannot be null");
+		}
+		if (capacity <= 0 || capacity > 1 << 28) {
+			throw new IllegalArgumentException("capacity must be between 1 and " + (1 << 28));
+		}
+		int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.threshold = threshold;
+		this.bucketNanos = unit.toNanos(bucket);
+		this.mask = size - 1;
+		this.cells = new AtomicLongArray(size * 2);
+		Random random = new SecureRandom();
+		this.firstSeed = random.nextLong();
+		this.secondSeed = random.nextLong();
+	}
+
+	/**
+	 * Sets how to identify the client of a request. The default is
+	 * {@link HttpServletRequest#getRemoteAddr()}. When behind a proxy, this might instead
+	 * read a header that the proxy sets. Requests whose key is {@code null} are not
+	 * tracked.
+	 *
+	 * @param clientKey how to identify the client of a request
+	 */
+	public void setClientKey(Function<HttpServletRequest, String> clientKey) {
+		if (clientKey == null) {
+			throw new IllegalArgumentException("clientKey cannot be null");
+		}
+		this.clientKey = clientKey;
+	}
+
+	/**
+	 * Whether the client of this request has recently been rejected at least as many times
+	 * as the threshold
+	 *
+	 * @param request the request
+	 * @return true if further requests from this client should be rejected
+	 */
+	public boolean isBlocked(HttpServletRequest request) {
+		String key = this.clientKey.apply(request);
+		return key != null && count(key) >= this.threshold;
+	}
+
+	/**
+	 * Records that a request from this client was rejected
+	 *
+	 * @param request the rejected request
+	 */
+	public void recordRejection(HttpServletRequest request) {
+		String key = this.clientKey.apply(request);
+		if (key != null) {
+			recordRejection(key);
+		}
+	}
+
+	/**
+	 * Estimates the recent rejections for the given key
+	 *
+	 * @param key the client key
+	 * @return the estimated recent rejections
+	 */
+	int count(String key) {
+		long bucket = currentBucket();
+		long first = decayed(this.cells.get(firstIndex(key)), bucket);
+		long second = decayed(this.cells.get(secondIndex(key)), bucket);
+		return (int) Math.min(first, second);
+	}
+
+	void recordRejection(String key) {
+		long bucket = currentBucket();
+		increment(firstIndex(key), bucket);
+		increment(secondIndex(key), bucket);
+	}
+
+	private void increment(int index, long bucket) {
+		for (;;) {
+			long cell = this.cells.get(index);
+			long count = decayed(cell, bucket);
+			if (count == COUNT_MASK) {
+				return;
+			}
+			long next = (bucket << 32) | (count + 1);
+			if (this.cells.compareAndSet(index, cell, next)) {
+				return;
+			}
+		}
+	}
+
+	private static long decayed(long cell, long bucket) {
+		long cellBucket = cell >>> 32;
+		long count = cell & COUNT_MASK;
+		if (cellBucket == bucket) {
+			return count;
+		}
+		if (cellBucket == bucket - 1) {
+			return count >>> 1;
+		}
+		return 0;
+	}
+
+	private long currentBucket() {
+		return (System.nanoTime() / this.bucketNanos) & COUNT_MASK;
+	}
+
+	int firstIndex(String key) {
+		return (int) hash(key, this.firstSeed) & this.mask;
+	}
+
+	int secondIndex(String key) {
+		return this.mask + 1 + ((int) hash(key, this.secondSeed) & this.mask);
+	}
+
+	/**
+	 * Hashes each character of the key into a seeded state rather than starting from
+	 * {@link String#hashCode()}, whose collisions, like {@code "Aa"} and {@code "BB"}, are
+	 * the same whatever it is mixed with afterwards
+	 */
+	private static long hash(String key, long seed) {
+		long hash = seed;
+		int length = key.length();
+		for (int i = 0; i < length; i++) {
+			hash = Long.rotateLeft(hash ^ key.charAt(i) * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+		}
+		return mix(hash ^ length);
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,253 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * A snapshot of the rule tables of a {@link Gh8644StrictHttpFirewall}: the allowed HTTP
+ * methods, the url blocklists, the url decoding inspection depth, and the tables of a
+ * {@link HostnameMatcher}.
+ * </p>
+ * <p>
+ * The snapshot can be written to a compact binary form ahead of time, for example at
+ * build time into a classpath resource, and then read at startup with a single read and
+ * no reflection, parsing, or compilation, and given to
+ * {@link Gh8644StrictHttpFirewall#Gh8644StrictHttpFirewall(CompiledFirewallRules)}.
+ * </p>
+ * <p>
+ * Predicates are code rather than tables, and so are not part of the snapshot. A
+ * hostname predicate is only included if it is a {@link HostnameMatcher}; any other
+ * predicate must be set again after the firewall is constructed.
+ * </p>
+ *
+ * @since 5.4
+ */
+public final class CompiledFirewallRules {
+	private static final int MAGIC = 0x46575231;
+
+	private static final int VERSION = 1;
+
+	private static final int ANY = -1;
+
+	private final String[] allowedHttpMethods;
+
+	private final String[] encodedUrlBlocklist;
+
+	private final String[] decodedUrlBlocklist;
+
+	private final int urlDecodingInspectionDepth;
+
+	private final HostnameMatcher hostnameMatcher;
+
+	private CompiledFirewallRules(String[] allowedHttpMethods, String[] encodedUrlBlocklist,
+			String[] decodedUrlBlocklist, int urlDecodingInspectionDepth, HostnameMatcher hostnameMatcher) {
+		this.allowedHttpMethods = allowedHttpMethods;
+		this.encodedUrlBlocklist = encodedUrlBlocklist;
+		this.decodedUrlBlocklist = decodedUrlBlocklist;
+		this.urlDecodingInspectionDepth = urlDecodingInspectionDepth;
+		this.hostnameMatcher = hostnameMatcher;
+	}
+
+	/**
+	 * Compiles the rule tables of the given firewall
+	 *
+	 * @param firewall the firewall
+	 * @return the compiled rules
+	 */
+	public static CompiledFirewallRules compile(Gh8644StrictHttpFirewall firewall) {
+		if (firewall == null) {
+			throw new IllegalArgumentException("firewall cannot be null");
+		}
+		Set<String> allowedHttpMethods = firewall.getAllowedHttpMethods();
+		Predicate<String> allowedHostnames = firewall.getAllowedHostnames();
+		return new CompiledFirewallRules(
+				allowedHttpMethods == null ? null : sorted(allowedHttpMethods),
+				sorted(firewall.getEncodedUrlBlocklist()),
+				sorted(firewall.getDecodedUrlBlocklist()),
+				firewall.getUrlDecodingInspectionDepth(),
+				allowedHostnames instanceof HostnameMatcher ? (HostnameMatcher) allowedHostnames : null);
+	}
+
+	/**
+	 * Reads compiled rules that were written by {@link #writeTo(OutputStream)}
+	 *
+	 * @param bytes the compiled rules
+	 * @return the compiled rules
+	 */
+	public static CompiledFirewallRules read(byte[] bytes) {
+		if (bytes == null) {
+			throw new IllegalArgumentException("bytes cannot be null");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+			throw new IllegalArgumentException("bytes are not compiled firewall rules");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported compiled firewall rules version " + version);
+		}
+		String[] allowedHttpMethods = readStrings(buffer);
+		String[] encodedUrlBlocklist = readStrings(buffer);
+		String[] decodedUrlBlocklist = readStrings(buffer);
+		int urlDecodingInspectionDepth = buffer.getInt();
+		HostnameMatcher hostnameMatcher = null;
+		if (buffer.get() != 0) {
+			int[] nodes = readInts(buffer);
+			int[] edges = readInts(buffer);
+			int[] ipv4 = readInts(buffer);
+			long[] ipv6 = new long[buffer.getInt()];
+			buffer.asLongBuffer().get(ipv6);
+			buffer.position(buffer.position() + ipv6.length * 8);
+			hostnameMatcher = new HostnameMatcher(nodes, edges, ipv4, ipv6);
+		}
+		return new CompiledFirewallRules(allowedHttpMethods, encodedUrlBlocklist, decodedUrlBlocklist,
+				urlDecodingInspectionDepth, hostnameMatcher);
+	}
+
+	/**
+	 * Reads compiled rules that were written by {@link #writeTo(OutputStream)}, for
+	 * example from a classpath resource. The stream is not closed.
+	 *
+	 * @param input the compiled rules
+	 * @return the compiled rules
+	 * @throws IOException if the stream can not be read
+	 */
+	public static CompiledFirewallRules read(InputStream input) throws IOException {
+		if (input == null) {
+			throw new IllegalArgumentException("input cannot be null");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(input.available(), 512));
+		byte[] chunk = new byte[8192];
+		for (int read = input.read(chunk); read != -1; read = input.read(chunk)) {
+			bytes.write(chunk, 0, read);
+		}
+		return read(bytes.toByteArray());
+	}
+
+	/**
+	 * Writes the compiled rules in their binary form. The stream is not closed.
+	 *
+	 * @param output where to write the rules
+	 * @throws IOException if the stream can not be written
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeStrings(data, this.allowedHttpMethods);
+		writeStrings(data, this.encodedUrlBlocklist);
+		writeStrings(data, this.decodedUrlBlocklist);
+		data.writeInt(this.urlDecodingInspectionDepth);
+		data.writeByte(this.hostnameMatcher == null ? 0 : 1);
+		if (this.hostnameMatcher != null) {
+			writeInts(data, this.hostnameMatcher.nodes());
+			writeInts(data, this.hostnameMatcher.edges());
+			writeInts(data, this.hostnameMatcher.ipv4());
+			long[] ipv6 = this.hostnameMatcher.ipv6();
+			data.writeInt(ipv6.length);
+			for (long value : ipv6) {
+				data.writeLong(value);
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * @return the allowed HTTP methods, or {@code null} if any HTTP method is allowed
+	 */
+	String[] getAllowedHttpMethods() {
+		return this.allowedHttpMethods;
+	}
+
+	String[] getEncodedUrlBlocklist() {
+		return this.encodedUrlBlocklist;
+	}
+
+	String[] getDecodedUrlBlocklist() {
+		return this.decodedUrlBlocklist;
+	}
+
+	int getUrlDecodingInspectionDepth() {
+		return this.urlDecodingInspectionDepth;
+	}
+
+	/**
+	 * @return the hostname matcher, or {@code null} if any hostname is allowed
+	 */
+	HostnameMatcher getHostnameMatcher() {
+		return this.hostnameMatcher;
+	}
+
+	private static String[] sorted(Set<String> values) {
+		String[] result = values.toArray(new String[0]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static void writeStrings(DataOutputStream data, String[] values) throws IOException {
+		if (values == null) {
+			data.writeInt(ANY);
+			return;
+		}
+		data.writeInt(values.length);
+		for (String value : values) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		}
+	}
+
+	private static String[] readStrings(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == ANY) {
+			return null;
+		}
+		String[] values = new String[length];
+		for (int i = 0; i < length; i++) {
+			int size = buffer.getInt();
+			values[i] = new String(buffer.array(), buffer.position(), size, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + size);
+		}
+		return values;
+	}
+
+	private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+		data.writeInt(values.length);
+		for (int value : values) {
+			data.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buffer) {
+		int[] values = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + values.length * 4);
+		return values;
+	}
+}
@@ -0,0 +1,234 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.web.firewall.FirewalledRequest;
+import org.springframework.security.web.firewall.HttpFirewall;
+import org.springframework.security.web.firewall.RequestRejectedException;
+
+/**
+ * <p>
+ * An {@link HttpFirewall} that enforces several layers of {@link Gh8644StrictHttpFirewall}
+ * rules, for example organization-wide, team, and application rules.
+ * </p>
+ * <p>
+ * Rather than asking each layer in turn, the layers are merged into a single
+ * {@link Gh8644StrictHttpFirewall} that is at least as strict as each of them. The URL is
+ * scanned once against the merged blocklists however many layers there are, but the
+ * layers' hostname, header, and parameter predicates are chained, and so each of those
+ * still walks the headers and parameters again:
+ * </p>
+ * <ul>
+ * <li>The encoded and decoded URL blocklists are the union of the layers' blocklists</li>
+ * <li>The allowed HTTP methods are the intersection of the layers' methods</li>
+ * <li>The hostname, header, and parameter predicates must all pass</li>
+ * <li>A header value must pass each layer's rule for that header, or that layer's
+ * general header value predicate when it has no rule for the header</li>
+ * <li>The URL decoding inspection depth is the shallowest non-zero depth of the layers',
+ * since a deeper inspection allows more levels of encoding. A layer that does not inspect
+ * keeps {@code "%25"} blocked through the union of the blocklists.</li>
+ * <li>Paths are only normalized instead of rejected when every layer normalizes them</li>
+ * <li>The {@link RejectionRecorder}, {@link ClientRejectionTracker}, and
+ * {@link RequestBodyInspector} are the first ones that any layer has</li>
+ * </ul>
+ * <p>
+ * The layers are merged when this firewall is constructed, and so later changes to them
+ * are not reflected.
+ * </p>
+ *
+ * @since 5.4
+ */
+public final class CompositeHttpFirewall implements HttpFirewall {
+	private final Gh8644StrictHttpFirewall plan;
+
+	public CompositeHttpFirewall(Gh8644StrictHttpFirewall... layers) {
+		this(layers == null ? null : Arrays.asList(layers));
+	}
+
+	public CompositeHttpFirewall(List<Gh8644StrictHttpFirewall> layers) {
+		if (layers == null || layers.isEmpty()) {
+			throw new IllegalArgumentException("layers cannot be empty");
+		}
+		if (layers.contains(null)) {
+			throw new IllegalArgumentException("layers cannot contain null");
+		}
+		this.plan = merge(layers);
+	}
+
+	@Override
+	public FirewalledRequest getFirewalledRequest(HttpServletRequest request) throws RequestRejectedException {
+		return this.plan.getFirewalledRequest(request);
+	}
+
+	@Override
+	public HttpServletResponse getFirewalledResponse(HttpServletResponse response) {
+		return this.plan.getFirewalledResponse(response);
+	}
+
+	/**
+	 * Validates a batch of requests against all layers at once
+	 *
+	 * @param batch the requests
+	 * @return the verdict for each request
+	 * @see Gh8644StrictHttpFirewall#validate(RequestBatch)
+	 */
+	public BatchVerdict validate(RequestBatch batch) {
+		return this.plan.validate(batch);
+	}
+
+	private static Gh8644StrictHttpFirewall merge(List<Gh8644StrictHttpFirewall> layers) {
+		Gh8644StrictHttpFirewall plan = new Gh8644StrictHttpFirewall();
+
+		// the depth first, since it also adjusts the blocklists that are replaced below
+		int depth = 0;
+		boolean normalizePaths = true;
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			int layerDepth = layer.getUrlDecodingInspectionDepth();
+			if (layerDepth > 0 && (depth == 0 || layerDepth < depth)) {
+				depth = layerDepth;
+			}
+			normalizePaths &= layer.isNormalizePaths();
+		}
+		plan.setUrlDecodingInspectionDepth(depth);
+		plan.setNormalizePaths(normalizePaths);
+
+		Set<String> encodedUrlBlocklist = plan.getEncodedUrlBlocklist();
+		Set<String> decodedUrlBlocklist = plan.getDecodedUrlBlocklist();
+		encodedUrlBlocklist.clear();
+		decodedUrlBlocklist.clear();
+		Set<String> allowedHttpMethods = null;
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			encodedUrlBlocklist.addAll(layer.getEncodedUrlBlocklist());
+			decodedUrlBlocklist.addAll(layer.getDecodedUrlBlocklist());
+			Set<String> methods = layer.getAllowedHttpMethods();
+			if (methods != null) {
+				if (allowedHttpMethods == null) {
+					allowedHttpMethods = new HashSet<>(methods);
+				} else {
+					allowedHttpMethods.retainAll(methods);
+				}
+			}
+		}
+		if (allowedHttpMethods == null) {
+			plan.setUnsafeAllowAnyHttpMethod(true);
+		} else {
+			plan.setAllowedHttpMethods(allowedHttpMethods);
+		}
+
+		plan.setAllowedHostnames(all(layers, plan, Gh8644StrictHttpFirewall::getAllowedHostnames));
+		plan.setAllowedHeaderNames(all(layers, plan, Gh8644StrictHttpFirewall::getAllowedHeaderNames));
+		plan.setAllowedHeaderValues(all(layers, plan, Gh8644StrictHttpFirewall::getAllowedHeaderValues));
+		plan.setAllowedParameterNames(all(layers, plan, Gh8644StrictHttpFirewall::getAllowedParameterNames));
+		plan.setAllowedParameterValues(all(layers, plan, Gh8644StrictHttpFirewall::getAllowedParameterValues));
+		headerValueRules(layers).forEach(plan::setAllowedHeaderValues);
+
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			if (layer.getRejectionRecorder() != null) {
+				plan.setRejectionRecorder(layer.getRejectionRecorder());
+				break;
+			}
+		}
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			if (layer.getClientRejectionTracker() != null) {
+				plan.setClientRejectionTracker(layer.getClientRejectionTracker());
+				break;
+			}
+		}
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			if (layer.getRequestBodyInspector() != null) {
+				plan.setRequestBodyInspector(layer.getRequestBodyInspector());
+				break;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Combines the rules for each header that any layer has a rule for. A layer without a
+	 * rule for the header contributes its general header value predicate instead.
+	 */
+	private static Map<String, Predicate<String>> headerValueRules(List<Gh8644StrictHttpFirewall> layers) {
+		Map<String, String> names = new LinkedHashMap<>();
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			for (String name : layer.getHeaderValueRules().names()) {
+				names.putIfAbsent(name.toLowerCase(Locale.ENGLISH), name);
+			}
+		}
+		Map<String, Predicate<String>> rules = new LinkedHashMap<>();
+		for (String name : names.values()) {
+			List<Predicate<String>> predicates = new ArrayList<>();
+			for (Gh8644StrictHttpFirewall layer : layers) {
+				Predicate<String> rule = layer.getHeaderValueRules().get(name);
+				if (rule == null) {
+					Predicate<Iterable<String>> values = layer.getAllowedHeaderValues();
+					rule = value -> values.test(Collections.singletonList(value));
+				}
+				predicates.add(rule);
+			}
+			rules.put(name, and(predicates));
+		}
+		return rules;
+	}
+
+	/**
+	 * Combines the layers' predicates, leaving out duplicates and the defaults, which allow
+	 * everything, so that a single non-default predicate, like a {@link HostnameMatcher},
+	 * is used as is
+	 */
+	private static <T> Predicate<T> all(List<Gh8644StrictHttpFirewall> layers, Gh8644StrictHttpFirewall plan,
+			Function<Gh8644StrictHttpFirewall, Predicate<T>> predicate) {
+		Predicate<T> defaults = predicate.apply(plan);
+		List<Predicate<T>> predicates = new ArrayList<>();
+		for (Gh8644StrictHttpFirewall layer : layers) {
+			Predicate<T> candidate = predicate.apply(layer);
+			if (candidate != defaults && predicates.stream().noneMatch(existing -> existing == candidate)) {
+				predicates.add(candidate);
+			}
+		}
+		return predicates.isEmpty() ? defaults : and(predicates);
+	}
+
+	private static <T> Predicate<T> and(List<Predicate<T>> predicates) {
+		if (predicates.size() == 1) {
+			return predicates.get(0);
+		}
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Predicate<T>[] all = predicates.toArray(new Predicate[0]);
+		return value -> {
+			for (Predicate<T> predicate : all) {
+				if (!predicate.test(value)) {
+					return false;
+				}
+			}
+			return true;
+		};
+	}
+}
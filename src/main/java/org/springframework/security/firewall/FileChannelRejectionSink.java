@@ -0,0 +1,100 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link RejectionSink} that appends each sample to a file as a single tab-separated
+ * line of timestamp, rule, token, host, and uri. Characters outside of printable ASCII are
+ * written as {@code ?} so that a sample cannot forge additional lines.
+ *
+ * @since 5.4
+ */
+public class FileChannelRejectionSink implements RejectionSink {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * Construct a {@link FileChannelRejectionSink}, creating the file if it does not exist
+	 *
+	 * @param path the file to append to
+	 * @throws IOException if the file cannot be opened
+	 */
+	public FileChannelRejectionSink(Path path) throws IOException {
+		if (path == null) {
+			throw new IllegalArgumentException("path cannot be null");
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public void write(RejectionRecorder.Sample sample) throws IOException {
+		put(Long.toString(sample.getTimestamp()));
+		put('\t');
+		put(sample.getRule().name());
+		put('\t');
+		put(sample.getToken());
+		put('\t');
+		put(sample.getHost());
+		put('\t');
+		put(sample.getUri());
+		put('\n');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		this.channel.close();
+	}
+
+	private void put(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			put(c < ' ' || c > '~' ? '?' : c);
+		}
+	}
+
+	private void put(char c) throws IOException {
+		if (!this.buffer.hasRemaining()) {
+			flush();
+		}
+		this.buffer.put((byte) c);
+	}
+}
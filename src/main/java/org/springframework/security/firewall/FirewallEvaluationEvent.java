@@ -0,0 +1,216 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Enumeration;
+import java.util.function.BiFunction;
+import javax.servlet.http.HttpServletRequest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+import org.springframework.security.web.firewall.FirewalledRequest;
+
+/**
+ * A JDK Flight Recorder event describing one evaluation of
+ * {@link Gh8644StrictHttpFirewall#getFirewalledRequest(HttpServletRequest)}.
+ *
+ * <p>
+ * The event is disabled by default, and when enabled only evaluations slower than its
+ * threshold are committed. Enable it with a recording setting like
+ * {@code org.springframework.security.firewall.FirewallEvaluation#enabled=true} and tune
+ * {@code #threshold} to taste. Stage durations are only measured while the event is
+ * enabled, and the counts are only gathered for evaluations that will be committed.
+ *
+ * @since 5.4
+ * @see FirewallRecordingAnalyzer
+ */
+@Name(FirewallEvaluationEvent.NAME)
+@Label("Firewall Evaluation")
+@Category({ "Spring Security", "Firewall" })
+@Description("The evaluation of a request by the firewall")
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+final class FirewallEvaluationEvent extends Event {
+	static final String NAME = "org.springframework.security.firewall.FirewallEvaluation";
+
+	static final String ACCEPTED = "ACCEPTED";
+
+	static final String NORMALIZED = "NORMALIZED";
+
+	static final String REJECTED = "REJECTED";
+
+	@Label("Method Duration")
+	@Description("Time spent checking the HTTP method and blocked clients")
+	@Timespan(Timespan.NANOSECONDS)
+	long methodDuration;
+
+	@Label("URL Duration")
+	@Description("Time spent checking the URL blocklists and decoding layers")
+	@Timespan(Timespan.NANOSECONDS)
+	long urlDuration;
+
+	@Label("Hostname Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long hostnameDuration;
+
+	@Label("Header Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long headerDuration;
+
+	@Label("Parameter Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long parameterDuration;
+
+	@Label("Normalization Duration")
+	@Description("Time spent checking, and possibly normalizing, the paths")
+	@Timespan(Timespan.NANOSECONDS)
+	long normalizationDuration;
+
+	@Label("Body Duration")
+	@Description("Time spent reading and inspecting the request body")
+	@Timespan(Timespan.NANOSECONDS)
+	long bodyDuration;
+
+	@Label("Header Count")
+	int headerCount;
+
+	@Label("Parameter Count")
+	int parameterCount;
+
+	@Label("Bytes Scanned")
+	@Description("The characters in the URL, header names and values, and parameter names and values")
+	@DataAmount
+	long bytesScanned;
+
+	@Label("Verdict")
+	String verdict;
+
+	@Label("Rule")
+	@Description("The rule that rejected the request, if any")
+	String rule;
+
+	private long stageStart;
+
+	// the number of stages ended, in the order their durations are declared
+	private int stage;
+
+	/**
+	 * Marks the end of the current stage, recording its duration. The stages are method,
+	 * URL, hostname, header, parameter, normalization, and body, ended in that order.
+	 */
+	void endStage() {
+		long now = System.nanoTime();
+		long duration = now - this.stageStart;
+		this.stageStart = now;
+		switch (this.stage++) {
+		case 0:
+			this.methodDuration = duration;
+			break;
+		case 1:
+			this.urlDuration = duration;
+			break;
+		case 2:
+			this.hostnameDuration = duration;
+			break;
+		case 3:
+			this.headerDuration = duration;
+			break;
+		case 4:
+			this.parameterDuration = duration;
+			break;
+		case 5:
+			this.normalizationDuration = duration;
+			break;
+		case 6:
+			this.bodyDuration = duration;
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Evaluates the request, committing this event if the evaluation was slower than the
+	 * threshold
+	 */
+	FirewalledRequest record(HttpServletRequest request,
+			BiFunction<HttpServletRequest, FirewallEvaluationEvent, FirewalledRequest> evaluation) {
+		begin();
+		this.stageStart = System.nanoTime();
+		try {
+			FirewalledRequest firewalled = evaluation.apply(request, this);
+			if (this.verdict == null) {
+				this.verdict = ACCEPTED;
+			}
+			return firewalled;
+		} catch (Gh8644StrictHttpFirewall.RuleRejectedException ex) {
+			endStage();
+			this.verdict = REJECTED;
+			this.rule = ex.getRule().name();
+			throw ex;
+		} catch (RuntimeException | Error ex) {
+			endStage();
+			throw ex;
+		} finally {
+			end();
+			if (shouldCommit()) {
+				count(request);
+				commit();
+			}
+		}
+	}
+
+	private void count(HttpServletRequest request) {
+		long bytes = length(request.getRequestURI());
+		Enumeration<String> headerNames = request.getHeaderNames();
+		while (headerNames != null && headerNames.hasMoreElements()) {
+			String name = headerNames.nextElement();
+			this.headerCount++;
+			bytes += name.length();
+			Enumeration<String> values = request.getHeaders(name);
+			while (values != null && values.hasMoreElements()) {
+				bytes += length(values.nextElement());
+			}
+		}
+		Enumeration<String> parameterNames = request.getParameterNames();
+		while (parameterNames != null && parameterNames.hasMoreElements()) {
+			String name = parameterNames.nextElement();
+			this.parameterCount++;
+			bytes += name.length();
+			String[] values = request.getParameterValues(name);
+			if (values != null) {
+				for (String value : values) {
+					bytes += length(value);
+				}
+			}
+		}
+		this.bytesScanned = bytes;
+	}
+
+	private static int length(String value) {
+		return value == null ? 0 : value.length();
+	}
+}
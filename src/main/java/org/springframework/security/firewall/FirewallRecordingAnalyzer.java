@@ -0,0 +1,116 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes the firewall evaluations in a Flight Recorder file into latency percentiles
+ * for each rule, with accepted and normalized requests listed under their verdict. For
+ * example:
+ *
+ * <pre>
+ * java -cp ... org.springframework.security.firewall.FirewallRecordingAnalyzer recording.jfr
+ * </pre>
+ *
+ * <p>
+ * Since only evaluations slower than the event threshold are recorded, the percentiles
+ * describe the slow tail rather than all requests.
+ *
+ * @since 5.4
+ */
+public final class FirewallRecordingAnalyzer {
+	private static final double[] PERCENTILES = { 50, 90, 99 };
+
+	private final Map<String, long[]> durations = new TreeMap<>();
+
+	private final Map<String, Integer> counts = new TreeMap<>();
+
+	private FirewallRecordingAnalyzer() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: FirewallRecordingAnalyzer <recording.jfr>...");
+			System.exit(2);
+		}
+		FirewallRecordingAnalyzer analyzer = new FirewallRecordingAnalyzer();
+		for (String file : args) {
+			analyzer.read(Paths.get(file));
+		}
+		analyzer.print(System.out);
+	}
+
+	private void read(Path file) throws IOException {
+		try (RecordingFile recording = new RecordingFile(file)) {
+			while (recording.hasMoreEvents()) {
+				RecordedEvent event = recording.readEvent();
+				if (FirewallEvaluationEvent.NAME.equals(event.getEventType().getName())) {
+					String rule = event.getString("rule");
+					add(rule != null ? rule : event.getString("verdict"), event.getDuration().toNanos());
+				}
+			}
+		}
+	}
+
+	private void add(String key, long nanos) {
+		int count = this.counts.getOrDefault(key, 0);
+		long[] values = this.durations.get(key);
+		if (values == null || values.length == count) {
+			values = values == null ? new long[16] : Arrays.copyOf(values, count * 2);
+			this.durations.put(key, values);
+		}
+		values[count] = nanos;
+		this.counts.put(key, count + 1);
+	}
+
+	private void print(PrintStream out) {
+		if (this.counts.isEmpty()) {
+			out.println("No " + FirewallEvaluationEvent.NAME + " events found; is the event enabled?");
+			return;
+		}
+		out.println(String.format("%-24s %8s %10s %10s %10s %10s", "rule", "count", "p50 (us)", "p90 (us)",
+				"p99 (us)", "max (us)"));
+		this.counts.forEach((key, count) -> {
+			long[] values = Arrays.copyOf(this.durations.get(key), count);
+			Arrays.sort(values);
+			StringBuilder line = new StringBuilder(String.format("%-24s %8d", key, count));
+			for (double percentile : PERCENTILES) {
+				line.append(String.format(" %10.1f", percentile(values, percentile) / 1000.0));
+			}
+			line.append(String.format(" %10.1f", values[count - 1] / 1000.0));
+			out.println(line);
+		});
+	}
+
+	/**
+	 * The nearest-rank percentile of sorted values
+	 */
+	private static long percentile(long[] sorted, double percentile) {
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+}
@@ -16,6 +16,9 @@ package org.springframework.security.firewall;
  * limitations under the License.
  */
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,8 +26,11 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.function.Predicate;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -32,6 +38,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.security.web.firewall.FirewalledRequest;
 import org.springframework.security.web.firewall.HttpFirewall;
 import org.springframework.security.web.firewall.RequestRejectedException;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
 
 /**
@@ -49,11 +56,16 @@ import org.springframework.util.CollectionUtils;
  * See {@link #setAllowedHttpMethods(Collection)}
  * </li>
  * <li>
+ * Optionally, rejects requests from clients that were recently rejected too many times.
+ * See {@link #setClientRejectionTracker(ClientRejectionTracker)}
+ * </li>
+ * <li>
  * Rejects URLs that are not normalized to avoid bypassing security constraints. There is
  * no way to disable this as it is considered extremely risky to disable this constraint.
  * A few options to allow this behavior is to normalize the request prior to the firewall
  *
- * request is fragile and why requests are rejected rather than normalized.
+ * request is fragile and why requests are rejected rather than normalized. Alternatively,
+ * see {@link #setNormalizePaths(boolean)}
  * </li>
  * <li>
  * Rejects URLs that contain characters that are not printable ASCII characters. There is
@@ -77,6 +89,11 @@ import org.springframework.util.CollectionUtils;
  * {@link #setAllowUrlEncodedPercent(boolean)}
  * </li>
  * <li>
+ * Optionally, rejects URLs that hide forbidden characters beneath several layers of URL
+ * encoding, instead of rejecting every URL encoded percent. See
+ * {@link #setUrlDecodingInspectionDepth(int)}
+ * </li>
+ * <li>
  * Rejects hosts that are not allowed. See
  * {@link #setAllowedHostnames(Predicate)}
  * </li>
@@ -86,7 +103,8 @@ import org.springframework.util.CollectionUtils;
  * </li>
  * <li>
  * Reject headers values that are not allowed. See
- * {@link #setAllowedHeaderValues(Predicate)}
+ * {@link #setAllowedHeaderValues(Predicate)} and
+ * {@link #setAllowedHeaderValues(String, Predicate)}
  * </li>
  * <li>
  * Reject parameter names that are not allowed. See
@@ -123,13 +141,27 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 
 	private static final List<String> FORBIDDEN_NULL = Collections.unmodifiableList(Arrays.asList("\0", "%00"));
 
-	private Set<String> encodedUrlBlocklist = new HashSet<>();
+	private static final Predicate<String> ALLOW_ANY_HOSTNAME = hostname -> true;
+
+	private static final boolean FLIGHT_RECORDER_PRESENT = ClassUtils.isPresent("jdk.jfr.Event",
+			Gh8644StrictHttpFirewall.class.getClassLoader());
+
+	private static final ThreadLocal<StringBuilder> NORMALIZATION_BUFFER = ThreadLocal.withInitial(StringBuilder::new);
 
-	private Set<String> decodedUrlBlocklist = new HashSet<>();
+	// built once so that each constructor copies them rather than assembling them again
+	private static final Set<String> DEFAULT_ENCODED_URL_BLOCKLIST = createDefaultUrlBlocklist(ENCODED_PERCENT, FORBIDDEN_ENCODED_PERIOD);
 
-	private Set<String> allowedHttpMethods = createDefaultAllowedHttpMethods();
+	private static final Set<String> DEFAULT_DECODED_URL_BLOCKLIST = createDefaultUrlBlocklist(PERCENT, Collections.emptyList());
 
-	private Predicate<String> allowedHostnames = hostname -> true;
+	private static final Set<String> DEFAULT_ALLOWED_HTTP_METHODS = createDefaultAllowedHttpMethods();
+
+	private final UrlBlocklist encodedUrlBlocklist;
+
+	private final UrlBlocklist decodedUrlBlocklist;
+
+	private Set<String> allowedHttpMethods;
+
+	private Predicate<String> allowedHostnames = ALLOW_ANY_HOSTNAME;
 
 	private Predicate<Iterable<String>> allowedHeaderNames = names -> true;
 
@@ -139,16 +171,50 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 
 	private Predicate<Iterable<String>> allowedParameterValues = value -> true;
 
+	private final HeaderValueRules headerValueRules = new HeaderValueRules();
+
+	private int urlDecodingInspectionDepth;
+
+	private boolean allowUrlEncodedPercent;
+
+	private boolean normalizePaths;
+
+	private RequestBodyInspector requestBodyInspector;
+
+	private RejectionRecorder rejectionRecorder;
+
+	private ClientRejectionTracker clientRejectionTracker;
+
 	public Gh8644StrictHttpFirewall() {
-		urlBlocklistsAddAll(FORBIDDEN_SEMICOLON);
-		urlBlocklistsAddAll(FORBIDDEN_FORWARDSLASH);
-		urlBlocklistsAddAll(FORBIDDEN_DOUBLE_FORWARDSLASH);
-		urlBlocklistsAddAll(FORBIDDEN_BACKSLASH);
-		urlBlocklistsAddAll(FORBIDDEN_NULL);
+		this.encodedUrlBlocklist = new UrlBlocklist(DEFAULT_ENCODED_URL_BLOCKLIST);
+		this.decodedUrlBlocklist = new UrlBlocklist(DEFAULT_DECODED_URL_BLOCKLIST);
+		this.allowedHttpMethods = new HashSet<>(DEFAULT_ALLOWED_HTTP_METHODS);
+	}
 
-		this.encodedUrlBlocklist.add(ENCODED_PERCENT);
-		this.encodedUrlBlocklist.addAll(FORBIDDEN_ENCODED_PERIOD);
-		this.decodedUrlBlocklist.add(PERCENT);
+	/**
+	 * Construct a {@link Gh8644StrictHttpFirewall} from rules that were compiled ahead of
+	 * time, for example at build time, so that startup does not need to compile them
+	 * again. The predicates that are not part of the {@link CompiledFirewallRules} keep their
+	 * defaults.
+	 *
+	 * @param rules the compiled rules
+	 * @see CompiledFirewallRules#compile(Gh8644StrictHttpFirewall)
+	 * @since 5.4
+	 */
+	public Gh8644StrictHttpFirewall(CompiledFirewallRules rules) {
+		if (rules == null) {
+			throw new IllegalArgumentException("rules cannot be null");
+		}
+		this.encodedUrlBlocklist = new UrlBlocklist(Arrays.asList(rules.getEncodedUrlBlocklist()));
+		this.decodedUrlBlocklist = new UrlBlocklist(Arrays.asList(rules.getDecodedUrlBlocklist()));
+		String[] allowedHttpMethods = rules.getAllowedHttpMethods();
+		this.allowedHttpMethods = allowedHttpMethods == null ? ALLOW_ANY_HTTP_METHOD : setOf(allowedHttpMethods);
+		if (rules.getHostnameMatcher() != null) {
+			this.allowedHostnames = rules.getHostnameMatcher();
+		}
+		this.urlDecodingInspectionDepth = rules.getUrlDecodingInspectionDepth();
+		this.allowUrlEncodedPercent = this.urlDecodingInspectionDepth == 0
+				&& !this.encodedUrlBlocklist.contains(ENCODED_PERCENT);
 	}
 
 	/**
@@ -160,7 +226,7 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	 * @since 5.1
 	 */
 	public void setUnsafeAllowAnyHttpMethod(boolean unsafeAllowAnyHttpMethod) {
-		this.allowedHttpMethods = unsafeAllowAnyHttpMethod ? ALLOW_ANY_HTTP_METHOD : createDefaultAllowedHttpMethods();
+		this.allowedHttpMethods = unsafeAllowAnyHttpMethod ? ALLOW_ANY_HTTP_METHOD : new HashSet<>(DEFAULT_ALLOWED_HTTP_METHODS);
 	}
 
 	/**
@@ -344,10 +410,21 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	 * to bypassing security constraints.
 	 * </p>
 	 *
+	 * <p>
+	 * While {@link #setUrlDecodingInspectionDepth(int)} is greater than 0, URL encoded
+	 * percents are allowed and inspected regardless of this setting, which applies again
+	 * once the depth is set back to 0.
+	 * </p>
+	 *
 	 * @param allowUrlEncodedPercent if a percent "%" that is URL encoded "%25" should be
 	 * allowed in the path or not. Default is false
 	 */
 	public void setAllowUrlEncodedPercent(boolean allowUrlEncodedPercent) {
+		this.allowUrlEncodedPercent = allowUrlEncodedPercent;
+		urlBlocklistsAllowPercent(allowUrlEncodedPercent || this.urlDecodingInspectionDepth > 0);
+	}
+
+	private void urlBlocklistsAllowPercent(boolean allowUrlEncodedPercent) {
 		if (allowUrlEncodedPercent) {
 			this.encodedUrlBlocklist.remove(ENCODED_PERCENT);
 			this.decodedUrlBlocklist.remove(PERCENT);
@@ -357,10 +434,71 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 		}
 	}
 
+	/**
+	 * <p>
+	 * Determines how many layers of URL encoding are decoded when inspecting the URL for
+	 * forbidden characters. The default is 0, which does not inspect the URL and instead
+	 * rejects any URL encoded percent "%25".
+	 * </p>
+	 * <p>
+	 * When greater than 0, a URL encoded percent is allowed, but the URL is decoded, on the
+	 * fly and in a single pass, up to the given number of times. The URL is rejected if any
+	 * layer decodes to a character that is forbidden in its URL encoded form, like a period
+	 * "." for "%252E" or a null "\0" for "%2500", or if the URL is encoded more times than
+	 * the given depth. This offers precise protection against double URL encoding while
+	 * still allowing legitimate URL encoded percents.
+	 * </p>
+	 * <p>
+	 * Setting the depth back to 0 allows or rejects URL encoded percents according to
+	 * {@link #setAllowUrlEncodedPercent(boolean)}, which rejects them by default.
+	 * </p>
+	 *
+	 * @param urlDecodingInspectionDepth the number of layers of URL encoding to allow, from 0
+	 * to 4. Default is 0
+	 * @see #setAllowUrlEncodedPercent(boolean)
+	 * @since 5.4
+	 */
+	public void setUrlDecodingInspectionDepth(int urlDecodingInspectionDepth) {
+		if (urlDecodingInspectionDepth < 0 || urlDecodingInspectionDepth > UrlDecodingInspector.MAX_DEPTH) {
+			throw new IllegalArgumentException("urlDecodingInspectionDepth must be between 0 and " +
+					UrlDecodingInspector.MAX_DEPTH);
+		}
+		this.urlDecodingInspectionDepth = urlDecodingInspectionDepth;
+		urlBlocklistsAllowPercent(urlDecodingInspectionDepth > 0 || this.allowUrlEncodedPercent);
+	}
+
+	/**
+	 * <p>
+	 * Determines if paths that contain "." or ".." segments should be normalized rather
+	 * than rejected. The default is to reject them.
+	 * </p>
+	 * <p>
+	 * Some proxies forward paths like "/a/./b" from benign clients, and rejecting these only
+	 * for the client to retry costs round-trips. When enabled, the request URI, servlet path,
+	 * and path info are normalized and served in their normalized form by the
+	 * {@link FirewalledRequest}. The servlet path and path info are normalized together, as
+	 * one path. Requests are still rejected if a path traverses above its root, if the
+	 * normalized request URI no longer starts with the context path, if the normalized path
+	 * no longer starts with the servlet path, if a request URI that is not encoded no longer
+	 * matches the normalized paths, or if the context path itself is not normalized.
+	 * </p>
+	 *
+	 * @param normalizePaths should paths that are not normalized be normalized rather than
+	 * rejected. Default is false
+	 * @since 5.4
+	 */
+	public void setNormalizePaths(boolean normalizePaths) {
+		this.normalizePaths = normalizePaths;
+	}
+
 	/**
 	 * <p>
 	 * Determines which hostnames should be allowed. The default is to allow any hostname.
 	 * </p>
+	 * <p>
+	 * To allow a large set of hostnames, wildcard domains, or IP literals, consider a
+	 * {@link HostnameMatcher}, whose cost does not grow with the number of hostnames.
+	 * </p>
 	 *
 	 * @param allowedHostnames the predicate for testing hostnames
 	 * @since 5.2
@@ -415,6 +553,34 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 		this.allowedHeaderValues = allowedHeaderValues;
 	}
 
+	/**
+	 * <p>
+	 * Determines which values of the given header should be allowed, in place of
+	 * {@link #setAllowedHeaderValues(Predicate)}. The values of a header with its own
+	 * predicate are tested one at a time by that predicate only, and are not passed to the
+	 * predicate for all header values, so that each value is read once.
+	 * </p>
+	 * <p>
+	 * This allows validation to be targeted: a {@link HeaderValueRule} can check a
+	 * header's length and characters in a single pass, and {@link HeaderValueRule#skip()}
+	 * skips a header that is known to be safe.
+	 * </p>
+	 *
+	 * @param headerName the case-insensitive header name
+	 * @param allowedHeaderValue the predicate for testing each value of the header
+	 * @see HeaderValueRule
+	 * @since 5.4
+	 */
+	public void setAllowedHeaderValues(String headerName, Predicate<String> allowedHeaderValue) {
+		if (headerName == null) {
+			throw new IllegalArgumentException("headerName cannot be null");
+		}
+		if (allowedHeaderValue == null) {
+			throw new IllegalArgumentException("allowedHeaderValue cannot be null");
+		}
+		this.headerValueRules.put(headerName, allowedHeaderValue);
+	}
+
 	private void urlBlocklistsRemoveAll(Collection<String> values) {
 		this.encodedUrlBlocklist.removeAll(values);
 		this.decodedUrlBlocklist.removeAll(values);
@@ -455,21 +621,125 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 		this.allowedParameterValues = allowedParameterValues;
 	}
 
+	/**
+	 * <p>
+	 * Sets the {@link RejectionRecorder} to sample rejected requests into, and starts its
+	 * drainer if it is not already running. The default is to not record rejected requests.
+	 * </p>
+	 *
+	 * @param rejectionRecorder the recorder for rejected requests
+	 * @since 5.4
+	 */
+	public void setRejectionRecorder(RejectionRecorder rejectionRecorder) {
+		if (rejectionRecorder == null) {
+			throw new IllegalArgumentException("rejectionRecorder cannot be null");
+		}
+		rejectionRecorder.start();
+		this.rejectionRecorder = rejectionRecorder;
+	}
+
+	/**
+	 * <p>
+	 * Sets the {@link ClientRejectionTracker} that counts rejections per client. Once a
+	 * client reaches the tracker's threshold, its requests are rejected right after the HTTP
+	 * method is checked, without paying for the remaining rules. The default is to not track
+	 * clients.
+	 * </p>
+	 *
+	 * @param clientRejectionTracker the tracker for rejections per client
+	 * @since 5.4
+	 */
+	public void setClientRejectionTracker(ClientRejectionTracker clientRejectionTracker) {
+		if (clientRejectionTracker == null) {
+			throw new IllegalArgumentException("clientRejectionTracker cannot be null");
+		}
+		this.clientRejectionTracker = clientRejectionTracker;
+	}
+
+	/**
+	 * <p>
+	 * Sets the {@link RequestBodyInspector} that checks JSON and multipart request bodies.
+	 * The body is inspected last, once every other rule has passed, and is then replayed to
+	 * downstream readers of the {@link FirewalledRequest}. Multipart bodies that the
+	 * container parses, for example while the parameters are checked, are instead
+	 * inspected through their parts. The default is to not inspect request bodies.
+	 * </p>
+	 * <p>
+	 * Note that {@link #validate(RequestBatch)} does not inspect bodies.
+	 * </p>
+	 *
+	 * @param requestBodyInspector the inspector for request bodies
+	 * @since 5.4
+	 */
+	public void setRequestBodyInspector(RequestBodyInspector requestBodyInspector) {
+		if (requestBodyInspector == null) {
+			throw new IllegalArgumentException("requestBodyInspector cannot be null");
+		}
+		this.requestBodyInspector = requestBodyInspector;
+	}
+
 	@Override
 	public FirewalledRequest getFirewalledRequest(HttpServletRequest request) throws RequestRejectedException {
+		if (FLIGHT_RECORDER_PRESENT) {
+			FirewallEvaluationEvent event = new FirewallEvaluationEvent();
+			if (event.isEnabled()) {
+				return event.record(request, this::evaluate);
+			}
+		}
+		return evaluate(request, null);
+	}
+
+	private FirewalledRequest evaluate(HttpServletRequest request, FirewallEvaluationEvent event) {
 		rejectForbiddenHttpMethod(request);
+		rejectBlockedClients(request);
+		if (event != null) {
+			event.endStage();
+		}
 		rejectedBlocklistedUrls(request);
+		if (event != null) {
+			event.endStage();
+		}
 		rejectedUntrustedHosts(request);
+		if (event != null) {
+			event.endStage();
+		}
 		rejectDisallowedHeaders(request);
+		if (event != null) {
+			event.endStage();
+		}
 		rejectDisallowedParameters(request);
+		if (event != null) {
+			event.endStage();
+		}
 
-		if (!isNormalized(request)) {
-			throw new RequestRejectedException("The request was rejected because the URL was not normalized.");
+		boolean normalized = isNormalized(request);
+		if (!normalized && !this.normalizePaths) {
+			throw rejected(request, RejectionRule.NOT_NORMALIZED, null,
+					"The request was rejected because the URL was not normalized. " + describeViolation(request));
 		}
 
 		String requestUri = request.getRequestURI();
 		if (!containsOnlyPrintableAsciiCharacters(requestUri)) {
-			throw new RequestRejectedException("The requestURI was rejected because it can only contain printable ASCII characters.");
+			throw rejected(request, RejectionRule.NON_PRINTABLE_CHARACTER, null,
+					"The requestURI was rejected because it can only contain printable ASCII characters.");
+		}
+		String[] paths = null;
+		if (!normalized) {
+			paths = normalizedPaths(request);
+			if (event != null) {
+				event.verdict = FirewallEvaluationEvent.NORMALIZED;
+			}
+		}
+		if (event != null) {
+			event.endStage();
+		}
+
+		RequestBodyInspector.Inspection body = inspectBody(request);
+		if (event != null) {
+			event.endStage();
+		}
+		if (paths != null || body != null) {
+			return new InspectedRequest(request, paths, body);
 		}
 		return new FirewalledRequest(request) {
 			@Override
@@ -478,57 +748,343 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 		};
 	}
 
+	private String[] normalizedPaths(HttpServletRequest request) {
+		String[] paths = normalize(request.getRequestURI(), request.getContextPath(), request.getServletPath(),
+				request.getPathInfo(), NORMALIZATION_BUFFER.get());
+		if (paths == null) {
+			throw rejected(request, RejectionRule.NOT_NORMALIZED, null,
+					"The request was rejected because the URL could not be normalized. " + describeViolation(request));
+		}
+		return paths;
+	}
+
+	private RequestBodyInspector.Inspection inspectBody(HttpServletRequest request) {
+		if (this.requestBodyInspector == null) {
+			return null;
+		}
+		RequestBodyInspector.Inspection inspection;
+		try {
+			inspection = this.requestBodyInspector.inspect(request);
+		} catch (IOException ex) {
+			throw rejected(request, RejectionRule.REQUEST_BODY, null,
+					"The request was rejected because the body could not be read.");
+		}
+		if (inspection != null && inspection.getViolation() != null) {
+			throw rejected(request, RejectionRule.REQUEST_BODY, null,
+					"The request was rejected because " + inspection.getViolation() + ".");
+		}
+		return inspection;
+	}
+
+	/**
+	 * Normalizes the servlet path and path info as the one path they are, and then splits
+	 * them where the normalized servlet path ends. So a {@code ".."} in the path info that
+	 * would step back into the servlet path, or one in the servlet path that the path info
+	 * would be appended to, can not be normalized.
+	 *
+	 * @return the normalized request uri, servlet path, and path info, or {@code null} if
+	 * they can not be safely normalized
+	 */
+	static String[] normalize(String requestUri, String contextPath, String servletPath, String pathInfo,
+			StringBuilder buffer) {
+		if (!isNormalized(contextPath)) {
+			return null;
+		}
+		String uri = normalizeIfNeeded(requestUri, buffer);
+		if (uri == null || !startsWithSegments(uri, contextPath)) {
+			return null;
+		}
+		String servlet = servletPath == null ? "" : servletPath;
+		String path = normalizeIfNeeded(pathInfo == null ? servlet : servlet + pathInfo, buffer);
+		if (path == null) {
+			return null;
+		}
+		String info = null;
+		if (pathInfo == null) {
+			servlet = path;
+		} else {
+			servlet = normalizeIfNeeded(servlet, buffer);
+			if (servlet == null || !startsWithSegments(path, servlet)) {
+				return null;
+			}
+			info = path.length() == servlet.length() ? null : path.substring(servlet.length());
+		}
+		// a request uri that is neither encoded nor has path parameters is the paths as they are served
+		if (requestUri.indexOf('%') == -1 && requestUri.indexOf(';') == -1
+				&& !uri.equals((contextPath == null ? "" : contextPath) + servlet + (info == null ? "" : info))) {
+			return null;
+		}
+		return new String[] { uri, servlet, info };
+	}
+
+	private static String normalizeIfNeeded(String path, StringBuilder buffer) {
+		if (path == null || path.isEmpty() || isNormalized(path)) {
+			return path;
+		}
+		return PathNormalization.normalize(path, buffer);
+	}
+
+	/**
+	 * Whether the path is the prefix, or starts with the prefix followed by a {@code "/"},
+	 * so that {@code "/ctx"} is a prefix of {@code "/ctx/x"} but not of {@code "/ctxevil/x"}
+	 */
+	private static boolean startsWithSegments(String path, String prefix) {
+		if (prefix == null || prefix.isEmpty()) {
+			return true;
+		}
+		return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+	}
+
+	private static String describeViolation(HttpServletRequest request) {
+		String[] names = { "requestURI", "contextPath", "servletPath", "pathInfo" };
+		String[] paths = { request.getRequestURI(), request.getContextPath(), request.getServletPath(),
+				request.getPathInfo() };
+		for (int i = 0; i < paths.length; i++) {
+			PathNormalization.Violation violation = PathNormalization.firstViolation(paths[i]);
+			if (violation != null) {
+				return "The " + names[i] + " has a " + violation + ".";
+			}
+		}
+		return "";
+	}
+
 	private void rejectForbiddenHttpMethod(HttpServletRequest request) {
 		if (this.allowedHttpMethods == ALLOW_ANY_HTTP_METHOD) {
 			return;
 		}
 		if (!this.allowedHttpMethods.contains(request.getMethod())) {
-			throw new RequestRejectedException("The request was rejected because the HTTP method \"" +
+			throw rejected(request, RejectionRule.HTTP_METHOD, request.getMethod(),
+					"The request was rejected because the HTTP method \"" +
 					request.getMethod() +
 					"\" was not included within the list of allowed HTTP methods " +
 					this.allowedHttpMethods);
 		}
 	}
 
+	private void rejectBlockedClients(HttpServletRequest request) {
+		if (this.clientRejectionTracker != null && this.clientRejectionTracker.isBlocked(request)) {
+			throw rejected(request, RejectionRule.CLIENT_BLOCKED, null,
+					"The request was rejected because the client was recently rejected too many times.");
+		}
+	}
+
 	private void rejectedBlocklistedUrls(HttpServletRequest request) {
-		for (String forbidden : this.encodedUrlBlocklist) {
-			if (encodedUrlContains(request, forbidden)) {
-				throw new RequestRejectedException("The request was rejected because the URL contained a potentially malicious String \"" + forbidden + "\"");
-			}
+		String forbidden = encodedUrlContains(request.getContextPath(), request.getRequestURI());
+		if (forbidden != null) {
+			throw rejected(request, RejectionRule.ENCODED_URL_BLOCKLIST, forbidden,
+					"The request was rejected because the URL contained a potentially malicious String \"" + forbidden + "\"");
 		}
-		for (String forbidden : this.decodedUrlBlocklist) {
-			if (decodedUrlContains(request, forbidden)) {
-				throw new RequestRejectedException("The request was rejected because the URL contained a potentially malicious String \"" + forbidden + "\"");
+		forbidden = decodedUrlContains(request.getServletPath(), request.getPathInfo());
+		if (forbidden != null) {
+			throw rejected(request, RejectionRule.DECODED_URL_BLOCKLIST, forbidden,
+					"The request was rejected because the URL contained a potentially malicious String \"" + forbidden + "\"");
+		}
+		if (this.urlDecodingInspectionDepth > 0) {
+			long[] forbiddenMask = this.encodedUrlBlocklist.forbiddenMask();
+			int layer = inspectUrlDecoding(request.getContextPath(), request.getRequestURI(), forbiddenMask);
+			if (layer != UrlDecodingInspector.NO_VIOLATION) {
+				throw rejected(request, RejectionRule.URL_DECODING_INSPECTION, null,
+						layer > this.urlDecodingInspectionDepth ?
+						"The request was rejected because the URL was encoded more than " +
+								this.urlDecodingInspectionDepth + " times" :
+						"The request was rejected because the URL contained a potentially malicious String " +
+								"after decoding it " + layer + " times");
 			}
 		}
 	}
 
+	private int inspectUrlDecoding(String contextPath, String requestUri, long[] forbidden) {
+		int layer = UrlDecodingInspector.inspect(contextPath, this.urlDecodingInspectionDepth, forbidden[0], forbidden[1]);
+		if (layer != UrlDecodingInspector.NO_VIOLATION) {
+			return layer;
+		}
+		return UrlDecodingInspector.inspect(requestUri, this.urlDecodingInspectionDepth, forbidden[0], forbidden[1]);
+	}
+
 	private void rejectedUntrustedHosts(HttpServletRequest request) {
 		String serverName = request.getServerName();
 		if (serverName != null && !this.allowedHostnames.test(serverName)) {
-			throw new RequestRejectedException("The request was rejected because the domain " + serverName + " is untrusted.");
+			throw rejected(request, RejectionRule.HOSTNAME, null,
+					"The request was rejected because the domain " + serverName + " is untrusted.");
 		}
 	}
 
 	private void rejectDisallowedHeaders(HttpServletRequest request) {
 		Iterable<String> names = () -> CollectionUtils.toIterator(request.getHeaderNames());
 		if (!this.allowedHeaderNames.test(names)) {
-			throw new RequestRejectedException("The request was rejected because one of the header names is not allowed.");
+			throw rejected(request, RejectionRule.HEADER_NAME, null,
+					"The request was rejected because one of the header names is not allowed.");
+		}
+		if (!areHeaderValuesAllowed(request)) {
+			throw rejected(request, RejectionRule.HEADER_VALUE, null,
+					"The request was rejected because one of the header values is not allowed.");
+		}
+	}
+
+	private boolean areHeaderValuesAllowed(HttpServletRequest request) {
+		if (this.headerValueRules.isEmpty()) {
+			return this.allowedHeaderValues.test(() -> new HeaderValuesIterable(request, null));
 		}
-		Iterable<String> values = () -> new HeaderValuesIterable(request);
-		if (!this.allowedHeaderValues.test(values)) {
-			throw new RequestRejectedException("The request was rejected because one of the header values is not allowed.");
+		Enumeration<String> headerNames = request.getHeaderNames();
+		while (headerNames.hasMoreElements()) {
+			String headerName = headerNames.nextElement();
+			Predicate<String> rule = this.headerValueRules.get(headerName);
+			if (rule == null || rule == HeaderValueRule.skip()) {
+				continue;
+			}
+			Enumeration<String> values = request.getHeaders(headerName);
+			while (values.hasMoreElements()) {
+				if (!rule.test(values.nextElement())) {
+					return false;
+				}
+			}
 		}
+		return this.allowedHeaderValues.test(() -> new HeaderValuesIterable(request, this.headerValueRules));
 	}
 
 	private void rejectDisallowedParameters(HttpServletRequest request) {
 		Iterable<String> names = () -> CollectionUtils.toIterator(request.getParameterNames());
 		if (!this.allowedParameterNames.test(names)) {
-			throw new RequestRejectedException("The request was rejected because one of the parameter names is not allowed.");
+			throw rejected(request, RejectionRule.PARAMETER_NAME, null,
+					"The request was rejected because one of the parameter names is not allowed.");
 		}
 		Iterable<String> values = () -> new ParameterValuesIterable(request);
 		if (!this.allowedParameterValues.test(values)) {
-			throw new RequestRejectedException("The request was rejected because one of the parameter values is not allowed.");
+			throw rejected(request, RejectionRule.PARAMETER_VALUE, null,
+					"The request was rejected because one of the parameter values is not allowed.");
+		}
+	}
+
+	/**
+	 * <p>
+	 * Validates a batch of requests without throwing a {@link RequestRejectedException}
+	 * for each rejection, for example to scan access logs or to check the micro-batches of a
+	 * gateway.
+	 * </p>
+	 * <p>
+	 * The batch is validated column-wise: each rule is applied to every request that is
+	 * still accepted before the next rule is applied. The rules are applied in the same
+	 * order as {@link #getFirewalledRequest(HttpServletRequest)}, and so each rejected
+	 * request is attributed to the same rule. Rejections are not sampled into the
+	 * {@link RejectionRecorder}, nor counted by or checked against the
+	 * {@link ClientRejectionTracker}, since batches are often not live traffic.
+	 * </p>
+	 *
+	 * @param batch the requests to validate
+	 * @return which requests were rejected, and why
+	 * @since 5.4
+	 */
+	public BatchVerdict validate(RequestBatch batch) {
+		if (batch == null) {
+			throw new IllegalArgumentException("batch cannot be null");
+		}
+		int size = batch.size();
+		BatchVerdict verdict = new BatchVerdict(size);
+		String[] requestUris = batch.requestUris();
+		String[] contextPaths = batch.contextPaths();
+		String[] servletPaths = batch.servletPaths();
+		String[] pathInfos = batch.pathInfos();
+		if (this.allowedHttpMethods != ALLOW_ANY_HTTP_METHOD) {
+			String[] methods = batch.methods();
+			for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+				if (!this.allowedHttpMethods.contains(methods[i])) {
+					verdict.reject(i, RejectionRule.HTTP_METHOD);
+				}
+			}
+		}
+		for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+			if (encodedUrlContains(contextPaths[i], requestUris[i]) != null) {
+				verdict.reject(i, RejectionRule.ENCODED_URL_BLOCKLIST);
+			}
+		}
+		for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+			if (decodedUrlContains(servletPaths[i], pathInfos[i]) != null) {
+				verdict.reject(i, RejectionRule.DECODED_URL_BLOCKLIST);
+			}
+		}
+		if (this.urlDecodingInspectionDepth > 0) {
+			long[] forbidden = this.encodedUrlBlocklist.forbiddenMask();
+			for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+				if (inspectUrlDecoding(contextPaths[i], requestUris[i], forbidden) != UrlDecodingInspector.NO_VIOLATION) {
+					verdict.reject(i, RejectionRule.URL_DECODING_INSPECTION);
+				}
+			}
+		}
+		String[] serverNames = batch.serverNames();
+		for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+			if (serverNames[i] != null && !this.allowedHostnames.test(serverNames[i])) {
+				verdict.reject(i, RejectionRule.HOSTNAME);
+			}
+		}
+		HttpServletRequest[] requests = batch.requests();
+		for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+			HttpServletRequest request = requests[i];
+			if (request == null) {
+				continue;
+			}
+			RejectionRule rule = disallowedHeaderOrParameter(request);
+			if (rule != null) {
+				verdict.reject(i, rule);
+			}
+		}
+		StringBuilder buffer = new StringBuilder();
+		for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+			if (!isNormalized(requestUris[i], contextPaths[i], servletPaths[i], pathInfos[i]) && (!this.normalizePaths
+					|| normalize(requestUris[i], contextPaths[i], servletPaths[i], pathInfos[i], buffer) == null)) {
+				verdict.reject(i, RejectionRule.NOT_NORMALIZED);
+			}
+		}
+		for (int i = verdict.nextAccepted(0); i < size; i = verdict.nextAccepted(i + 1)) {
+			if (!containsOnlyPrintableAsciiCharacters(requestUris[i])) {
+				verdict.reject(i, RejectionRule.NON_PRINTABLE_CHARACTER);
+			}
+		}
+		return verdict;
+	}
+
+	private RejectionRule disallowedHeaderOrParameter(HttpServletRequest request) {
+		if (!this.allowedHeaderNames.test(() -> CollectionUtils.toIterator(request.getHeaderNames()))) {
+			return RejectionRule.HEADER_NAME;
+		}
+		if (!areHeaderValuesAllowed(request)) {
+			return RejectionRule.HEADER_VALUE;
+		}
+		if (!this.allowedParameterNames.test(() -> CollectionUtils.toIterator(request.getParameterNames()))) {
+			return RejectionRule.PARAMETER_NAME;
+		}
+		if (!this.allowedParameterValues.test(() -> new ParameterValuesIterable(request))) {
+			return RejectionRule.PARAMETER_VALUE;
+		}
+		return null;
+	}
+
+	private RequestRejectedException rejected(HttpServletRequest request, RejectionRule rule, String token,
+			String message) {
+		if (this.rejectionRecorder != null) {
+			this.rejectionRecorder.record(rule, token, request.getRequestURI(), request.getServerName());
+		}
+		// only rejections on their merits count, so that a blocked client recovers once it stops probing
+		if (this.clientRejectionTracker != null && rule != RejectionRule.CLIENT_BLOCKED) {
+			this.clientRejectionTracker.recordRejection(request);
+		}
+		return new RuleRejectedException(rule, message);
+	}
+
+	/**
+	 * Remembers which rule rejected the request, for {@link FirewallEvaluationEvent}
+	 */
+	static final class RuleRejectedException extends RequestRejectedException {
+		private static final long serialVersionUID = 1L;
+
+		private final RejectionRule rule;
+
+		RuleRejectedException(RejectionRule rule, String message) {
+			super(message);
+			this.rule = rule;
+		}
+
+		RejectionRule getRule() {
+			return this.rule;
 		}
 	}
 
@@ -537,6 +1093,72 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 		return null;
 	}
 
+	Set<String> getAllowedHttpMethods() {
+		return this.allowedHttpMethods == ALLOW_ANY_HTTP_METHOD ? null : this.allowedHttpMethods;
+	}
+
+	Predicate<String> getAllowedHostnames() {
+		return this.allowedHostnames;
+	}
+
+	int getUrlDecodingInspectionDepth() {
+		return this.urlDecodingInspectionDepth;
+	}
+
+	Predicate<Iterable<String>> getAllowedHeaderNames() {
+		return this.allowedHeaderNames;
+	}
+
+	Predicate<Iterable<String>> getAllowedHeaderValues() {
+		return this.allowedHeaderValues;
+	}
+
+	HeaderValueRules getHeaderValueRules() {
+		return this.headerValueRules;
+	}
+
+	Predicate<Iterable<String>> getAllowedParameterNames() {
+		return this.allowedParameterNames;
+	}
+
+	Predicate<Iterable<String>> getAllowedParameterValues() {
+		return this.allowedParameterValues;
+	}
+
+	boolean isNormalizePaths() {
+		return this.normalizePaths;
+	}
+
+	RejectionRecorder getRejectionRecorder() {
+		return this.rejectionRecorder;
+	}
+
+	ClientRejectionTracker getClientRejectionTracker() {
+		return this.clientRejectionTracker;
+	}
+
+	RequestBodyInspector getRequestBodyInspector() {
+		return this.requestBodyInspector;
+	}
+
+	private static Set<String> createDefaultUrlBlocklist(String percent, Collection<String> encodedOnly) {
+		Set<String> result = new HashSet<>();
+		result.addAll(FORBIDDEN_SEMICOLON);
+		result.addAll(FORBIDDEN_FORWARDSLASH);
+		result.addAll(FORBIDDEN_DOUBLE_FORWARDSLASH);
+		result.addAll(FORBIDDEN_BACKSLASH);
+		result.addAll(FORBIDDEN_NULL);
+		result.add(percent);
+		result.addAll(encodedOnly);
+		return result;
+	}
+
+	private static Set<String> setOf(String[] values) {
+		Set<String> result = new HashSet<>(values.length * 4 / 3 + 1);
+		Collections.addAll(result, values);
+		return result;
+	}
+
 	private static Set<String> createDefaultAllowedHttpMethods() {
 		Set<String> result = new HashSet<>();
 		result.add(HttpMethod.DELETE.name());
@@ -550,36 +1172,42 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	}
 
 	private static boolean isNormalized(HttpServletRequest request) {
-		if (!isNormalized(request.getRequestURI())) {
+		return isNormalized(request.getRequestURI(), request.getContextPath(), request.getServletPath(),
+				request.getPathInfo());
+	}
+
+	private static boolean isNormalized(String requestUri, String contextPath, String servletPath, String pathInfo) {
+		if (!isNormalized(requestUri)) {
 			return false;
 		}
-		if (!isNormalized(request.getContextPath())) {
+		if (!isNormalized(contextPath)) {
 			return false;
 		}
-		if (!isNormalized(request.getServletPath())) {
+		if (!isNormalized(servletPath)) {
 			return false;
 		}
-		if (!isNormalized(request.getPathInfo())) {
+		if (!isNormalized(pathInfo)) {
 			return false;
 		}
 		return true;
 	}
 
-	private static boolean encodedUrlContains(HttpServletRequest request, String value) {
-		if (valueContains(request.getContextPath(), value)) {
-			return true;
-		}
-		return valueContains(request.getRequestURI(), value);
+	/**
+	 * @return a token from the encoded url blocklist that the url contains, or
+	 * {@code null} if it contains none
+	 */
+	private String encodedUrlContains(String contextPath, String requestUri) {
+		String forbidden = this.encodedUrlBlocklist.find(contextPath);
+		return forbidden != null ? forbidden : this.encodedUrlBlocklist.find(requestUri);
 	}
 
-	private static boolean decodedUrlContains(HttpServletRequest request, String value) {
-		if (valueContains(request.getServletPath(), value)) {
-			return true;
-		}
-		if (valueContains(request.getPathInfo(), value)) {
-			return true;
-		}
-		return false;
+	/**
+	 * @return a token from the decoded url blocklist that the url contains, or
+	 * {@code null} if it contains none
+	 */
+	private String decodedUrlContains(String servletPath, String pathInfo) {
+		String forbidden = this.decodedUrlBlocklist.find(servletPath);
+		return forbidden != null ? forbidden : this.decodedUrlBlocklist.find(pathInfo);
 	}
 
 	private static boolean containsOnlyPrintableAsciiCharacters(String uri) {
@@ -594,10 +1222,6 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 		return true;
 	}
 
-	private static boolean valueContains(String value, String contains) {
-		return value != null && value.contains(contains);
-	}
-
 	/**
 	 * Checks whether a path is normalized (doesn't contain path traversal
 	 * sequences like "./", "/../" or "/.")
@@ -606,27 +1230,10 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	 *            the path to test
 	 * @return true if the path doesn't contain any path-traversal character
 	 *         sequences.
+	 * @see PathNormalization
 	 */
 	private static boolean isNormalized(String path) {
-		if (path == null) {
-			return true;
-		}
-
-		for (int j = path.length(); j > 0;) {
-			int i = path.lastIndexOf('/', j - 1);
-			int gap = j - i;
-
-			if (gap == 2 && path.charAt(i + 1) == '.') {
-				// ".", "/./" or "/."
-				return false;
-			} else if (gap == 3 && path.charAt(i + 1) == '.' && path.charAt(i + 2) == '.') {
-				return false;
-			}
-
-			j = i;
-		}
-
-		return true;
+		return PathNormalization.indexOfViolation(path) == -1;
 	}
 
 	private static boolean containsISOControlCharacter(String s) {
@@ -634,7 +1241,9 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	}
 
 	/**
-	 * Provides the existing encoded url blocklist which can add/remove entries from
+	 * Provides the existing encoded url blocklist which can add/remove entries from. Once it
+	 * holds many entries, for example thousands of scanner signatures, it is searched with
+	 * a rolling hash prefilter so that its cost does not grow with its size.
 	 *
 	 * @return the existing encoded url blocklist, never null
 	 */
@@ -643,7 +1252,9 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	}
 
 	/**
-	 * Provides the existing decoded url blocklist which can add/remove entries from
+	 * Provides the existing decoded url blocklist which can add/remove entries from. Once it
+	 * holds many entries, for example thousands of scanner signatures, it is searched with
+	 * a rolling hash prefilter so that its cost does not grow with its size.
 	 *
 	 * @return the existing decoded url blocklist, never null
 	 */
@@ -673,34 +1284,174 @@ public class Gh8644StrictHttpFirewall implements HttpFirewall {
 	}
 
 
+	/**
+	 * A request whose paths were normalized, or whose body was inspected and is replayed
+	 * from memory
+	 */
+	private static final class InspectedRequest extends FirewalledRequest {
+		private final String[] paths;
+
+		private final RequestBodyInspector.Inspection body;
+
+		InspectedRequest(HttpServletRequest request, String[] paths, RequestBodyInspector.Inspection body) {
+			super(request);
+			this.paths = paths;
+			this.body = body;
+		}
+
+		@Override
+		public String getRequestURI() {
+			return this.paths == null ? super.getRequestURI() : this.paths[0];
+		}
+
+		/**
+		 * Rebuilds the URL from the scheme and authority of the original URL and the
+		 * normalized request URI, so that the two agree.
+		 */
+		@Override
+		public StringBuffer getRequestURL() {
+			StringBuffer url = super.getRequestURL();
+			if (this.paths == null || url == null) {
+				return url;
+			}
+			int authority = url.indexOf("://");
+			int path = url.indexOf("/", authority < 0 ? 0 : authority + 3);
+			if (path >= 0) {
+				url.setLength(path);
+			}
+			return url.append(this.paths[0]);
+		}
+
+		@Override
+		public String getServletPath() {
+			return this.paths == null ? super.getServletPath() : this.paths[1];
+		}
+
+		@Override
+		public String getPathInfo() {
+			return this.paths == null ? super.getPathInfo() : this.paths[2];
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (this.body == null) {
+				return super.getInputStream();
+			}
+			return new ReplayInputStream(this.body.getBody(), this.body.getLength());
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+			if (this.body == null) {
+				return super.getReader();
+			}
+			return new BufferedReader(new InputStreamReader(getInputStream(), this.body.getCharset()));
+		}
+
+		@Override
+		public void reset() {
+		}
+	}
+
+	private static final class ReplayInputStream extends ServletInputStream {
+		private final byte[] body;
+
+		private final int length;
+
+		private int position;
+
+		ReplayInputStream(byte[] body, int length) {
+			this.body = body;
+			this.length = length;
+		}
+
+		@Override
+		public int read() {
+			return this.position < this.length ? this.body[this.position++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (this.position >= this.length) {
+				return -1;
+			}
+			int read = Math.min(len, this.length - this.position);
+			System.arraycopy(this.body, this.position, b, off, read);
+			this.position += read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return this.length - this.position;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return this.position >= this.length;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			try {
+				if (isFinished()) {
+					readListener.onAllDataRead();
+				} else {
+					readListener.onDataAvailable();
+				}
+			} catch (IOException ex) {
+				readListener.onError(ex);
+			}
+		}
+	}
+
 	private static class HeaderValuesIterable implements Iterator<String> {
 		private final HttpServletRequest request;
 		private final Enumeration<String> headerNames;
+		private final HeaderValueRules excluded;
 
-		private String currentHeaderName;
 		private Enumeration<String> headerValues;
+		private String next;
 
-		public HeaderValuesIterable(HttpServletRequest request) {
+		/**
+		 * @param excluded the headers whose values are skipped since they have their own
+		 * rules, may be null
+		 */
+		public HeaderValuesIterable(HttpServletRequest request, HeaderValueRules excluded) {
 			this.request = request;
 			this.headerNames = request.getHeaderNames();
+			this.excluded = excluded;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return this.headerNames.hasMoreElements() || hasMoreValues();
+			while (this.next == null) {
+				if (this.headerValues != null && this.headerValues.hasMoreElements()) {
+					this.next = this.headerValues.nextElement();
+				} else if (this.headerNames.hasMoreElements()) {
+					String headerName = this.headerNames.nextElement();
+					this.headerValues = this.excluded != null && this.excluded.get(headerName) != null ?
+							null : this.request.getHeaders(headerName);
+				} else {
+					return false;
+				}
+			}
+			return true;
 		}
 
 		@Override
 		public String next() {
-			if (this.currentHeaderName == null || !hasMoreValues()) {
-				this.currentHeaderName = this.headerNames.nextElement();
-				this.headerValues = this.request.getHeaders(this.currentHeaderName);
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
-			return this.headerValues.nextElement();
-		}
-
-		private boolean hasMoreValues() {
-			return this.headerValues != null && headerValues.hasMoreElements();
+			String next = this.next;
+			this.next = null;
+			return next;
 		}
 	}
 
@@ -0,0 +1,104 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * A rule for the values of one header, for
+ * {@link Gh8644StrictHttpFirewall#setAllowedHeaderValues(String, Predicate)}. A rule
+ * checks the length of a value first, and then its characters in a single pass.
+ * </p>
+ *
+ * @since 5.4
+ */
+public final class HeaderValueRule implements Predicate<String> {
+	private static final HeaderValueRule SKIP = new HeaderValueRule(null, Integer.MAX_VALUE);
+
+	private final CharacterClass allowed;
+
+	private final int maxLength;
+
+	private HeaderValueRule(CharacterClass allowed, int maxLength) {
+		this.allowed = allowed;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * A rule for headers that are known to be safe, whose values are not checked at all
+	 *
+	 * @return the rule
+	 */
+	public static HeaderValueRule skip() {
+		return SKIP;
+	}
+
+	/**
+	 * A rule that allows values of any length made only of the given characters
+	 *
+	 * @param allowed the allowed characters
+	 * @return the rule
+	 */
+	public static HeaderValueRule of(CharacterClass allowed) {
+		return of(allowed, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * A rule that allows values up to the given length made only of the given characters
+	 *
+	 * @param allowed the allowed characters
+	 * @param maxLength the maximum length of a value
+	 * @return the rule
+	 */
+	public static HeaderValueRule of(CharacterClass allowed, int maxLength) {
+		if (allowed == null) {
+			throw new IllegalArgumentException("allowed cannot be null");
+		}
+		if (maxLength < 0) {
+			throw new IllegalArgumentException("maxLength cannot be negative");
+		}
+		return new HeaderValueRule(allowed, maxLength);
+	}
+
+	/**
+	 * @return true if this rule does not check values at all
+	 */
+	public boolean isSkip() {
+		return this == SKIP;
+	}
+
+	/**
+	 * Tests a single character of a value that is checked as it streams by
+	 *
+	 * @param c the character
+	 * @param position the 1-based position of the character in the value
+	 * @return true if the character is allowed at that position
+	 */
+	boolean allows(int c, int position) {
+		return this == SKIP || position <= this.maxLength && this.allowed.contains(c);
+	}
+
+	@Override
+	public boolean test(String value) {
+		if (this == SKIP) {
+			return true;
+		}
+		return value.length() <= this.maxLength && this.allowed.indexOfFirstNotIn(value) == -1;
+	}
+}
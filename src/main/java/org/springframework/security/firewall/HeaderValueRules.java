@@ -0,0 +1,151 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.function.Predicate;
+
+/**
+ * The rules for header values keyed by header name, compiled into an open-addressing
+ * table whose keys are hashed and compared ignoring ASCII case, so that looking up the
+ * rule for a header name neither allocates nor lower-cases the name.
+ */
+final class HeaderValueRules {
+	private volatile Table table = new Table(new String[0], newRules(0));
+
+	/**
+	 * Adds or replaces the rule for the given header. Rules change rarely, so the table is
+	 * rebuilt each time.
+	 */
+	void put(String name, Predicate<String> rule) {
+		Table table = this.table;
+		String[] names = table.entryNames();
+		Predicate<String>[] rules = table.entryRules();
+		int existing = -1;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equalsIgnoreCase(name)) {
+				existing = i;
+			}
+		}
+		if (existing >= 0) {
+			rules[existing] = rule;
+			this.table = new Table(names, rules);
+			return;
+		}
+		String[] moreNames = new String[names.length + 1];
+		Predicate<String>[] moreRules = newRules(names.length + 1);
+		System.arraycopy(names, 0, moreNames, 0, names.length);
+		System.arraycopy(rules, 0, moreRules, 0, rules.length);
+		moreNames[names.length] = name;
+		moreRules[names.length] = rule;
+		this.table = new Table(moreNames, moreRules);
+	}
+
+	/**
+	 * @return the rule for the given header, or {@code null} if it has none
+	 */
+	Predicate<String> get(String name) {
+		return this.table.get(name);
+	}
+
+	boolean isEmpty() {
+		return this.table.size == 0;
+	}
+
+	String[] names() {
+		return this.table.entryNames();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Predicate<String>[] newRules(int size) {
+		return new Predicate[size];
+	}
+
+	private static final class Table {
+		private final String[] names;
+
+		private final Predicate<String>[] rules;
+
+		private final int size;
+
+		Table(String[] names, Predicate<String>[] rules) {
+			int capacity = Integer.highestOneBit(Math.max(names.length, 1)) << 2;
+			this.names = new String[capacity];
+			this.rules = newRules(capacity);
+			this.size = names.length;
+			for (int i = 0; i < names.length; i++) {
+				int slot = hash(names[i]) & (capacity - 1);
+				while (this.names[slot] != null) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+				this.names[slot] = names[i];
+				this.rules[slot] = rules[i];
+			}
+		}
+
+		Predicate<String> get(String name) {
+			if (this.size == 0) {
+				return null;
+			}
+			int mask = this.names.length - 1;
+			for (int slot = hash(name) & mask;; slot = (slot + 1) & mask) {
+				String candidate = this.names[slot];
+				if (candidate == null) {
+					return null;
+				}
+				if (candidate.length() == name.length() && candidate.regionMatches(true, 0, name, 0, name.length())) {
+					return this.rules[slot];
+				}
+			}
+		}
+
+		String[] entryNames() {
+			String[] result = new String[this.size];
+			int i = 0;
+			for (String name : this.names) {
+				if (name != null) {
+					result[i++] = name;
+				}
+			}
+			return result;
+		}
+
+		Predicate<String>[] entryRules() {
+			Predicate<String>[] result = newRules(this.size);
+			int i = 0;
+			for (int slot = 0; slot < this.names.length; slot++) {
+				if (this.names[slot] != null) {
+					result[i++] = this.rules[slot];
+				}
+			}
+			return result;
+		}
+
+		private static int hash(String name) {
+			int hash = 0;
+			int length = name.length();
+			for (int i = 0; i < length; i++) {
+				char c = name.charAt(i);
+				if (c >= 'A' && c <= 'Z') {
+					c += 'a' - 'A';
+				}
+				hash = 31 * hash + c;
+			}
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
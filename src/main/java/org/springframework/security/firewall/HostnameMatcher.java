@@ -0,0 +1,611 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * A {@link Predicate} for {@link Gh8644StrictHttpFirewall#setAllowedHostnames(Predicate)}
+ * that allows a fixed set of hosts. Each host is one of:
+ * </p>
+ * <ul>
+ * <li>An exact hostname, like {@code "example.org"}</li>
+ * <li>A wildcard, like {@code "*.example.org"}, that allows any subdomain of
+ * {@code "example.org"}, but not {@code "example.org"} itself</li>
+ * <li>An IPv4 literal, like {@code "192.168.0.1"}</li>
+ * <li>An IPv6 literal in brackets, like {@code "[::1]"}</li>
+ * </ul>
+ * <p>
+ * Hostnames are compiled into a trie of their characters in reverse, so that hostnames
+ * sharing a domain share a branch, and so testing a host costs time proportional to the
+ * length of the host regardless of how many hosts are allowed. Hostnames are compared
+ * ignoring ASCII case, and hosts longer than the 253 characters allowed by DNS are rejected
+ * without being read. IP literals are parsed into numbers and looked up separately.
+ * </p>
+ * <p>
+ * Matchers constructed with the same hosts share one compiled trie, which is stored
+ * off-heap when large, so that many firewalls with the same tenant hostnames do not each
+ * hold a copy.
+ * </p>
+ *
+ * @since 5.4
+ */
+public final class HostnameMatcher implements Predicate<String> {
+	private static final int MAX_HOSTNAME_LENGTH = 253;
+
+	private static final int MAX_IPV6_LITERAL_LENGTH = 41;
+
+	static final int EXACT = 1;
+
+	static final int WILDCARD = 2;
+
+	static final int NODE_SIZE = 3;
+
+	// keeps the shared tables reachable for as long as this matcher is
+	private final Tables tables;
+
+	// per node: the index of its first edge, its number of edges, and its flags
+	private final IntBuffer nodes;
+
+	// per edge, sorted by character within a node: the character and the target node
+	private final IntBuffer edges;
+
+	private final int[] ipv4;
+
+	// pairs of high and low bits, sorted
+	private final long[] ipv6;
+
+	/**
+	 * Construct a {@link HostnameMatcher}
+	 *
+	 * @param hosts the hosts to allow
+	 */
+	public HostnameMatcher(Collection<String> hosts) {
+		this(intern(canonicalize(hosts)));
+	}
+
+	HostnameMatcher(int[] nodes, int[] edges, int[] ipv4, long[] ipv6) {
+		this(share(nodes, edges, ipv4, ipv6));
+	}
+
+	private HostnameMatcher(Tables tables) {
+		this.tables = tables;
+		this.nodes = tables.nodes;
+		this.edges = tables.edges;
+		this.ipv4 = tables.ipv4;
+		this.ipv6 = tables.ipv6;
+	}
+
+	@Override
+	public boolean test(String host) {
+		if (host == null) {
+			return false;
+		}
+		int length = host.length();
+		if (length > 0 && host.charAt(length - 1) == '.') {
+			length--;
+		}
+		if (length == 0 || length > MAX_HOSTNAME_LENGTH) {
+			return false;
+		}
+		if (host.charAt(0) == '[') {
+			return matchesIpv6(host, length);
+		}
+		if (isDigit(host.charAt(length - 1))) {
+			long address = parseIpv4(host, length);
+			if (address >= 0) {
+				return Arrays.binarySearch(this.ipv4, (int) address) >= 0;
+			}
+		}
+		int node = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			int c = host.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c |= 0x20;
+			}
+			node = child(node, c);
+			if (node < 0) {
+				return false;
+			}
+			if (i > 0 && (this.nodes.get(node * NODE_SIZE + 2) & WILDCARD) != 0) {
+				return isHostname(host, 0, i);
+			}
+		}
+		return (this.nodes.get(node * NODE_SIZE + 2) & EXACT) != 0;
+	}
+
+	int[] nodes() {
+		return toArray(this.nodes);
+	}
+
+	int[] edges() {
+		return toArray(this.edges);
+	}
+
+	int[] ipv4() {
+		return this.ipv4;
+	}
+
+	long[] ipv6() {
+		return this.ipv6;
+	}
+
+	private int child(int node, int c) {
+		return child(this.nodes, this.edges, node, c);
+	}
+
+	private static int child(IntBuffer nodes, IntBuffer edges, int node, int c) {
+		int low = nodes.get(node * NODE_SIZE);
+		int high = low + nodes.get(node * NODE_SIZE + 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int edge = edges.get(middle * 2);
+			if (edge < c) {
+				low = middle + 1;
+			} else if (edge > c) {
+				high = middle - 1;
+			} else {
+				return edges.get(middle * 2 + 1);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Validates the hosts and puts them in a canonical order and case so that equal
+	 * configurations share their compiled tables
+	 */
+	private static String[] canonicalize(Collection<String> hosts) {
+		if (hosts == null) {
+			throw new IllegalArgumentException("hosts cannot be null");
+		}
+		TreeSet<String> canonical = new TreeSet<>();
+		for (String host : hosts) {
+			if (host == null || host.isEmpty()) {
+				throw new IllegalArgumentException("hosts cannot contain an empty host");
+			}
+			if (host.charAt(0) == '[') {
+				if (!parseIpv6(host, host.length(), new long[2])) {
+					throw new IllegalArgumentException("Invalid IPv6 literal " + host);
+				}
+			} else if (parseIpv4(host, host.length()) < 0) {
+				// a top-level domain is never all digits, so this is a mistyped IPv4 literal
+				if (isDigit(host.charAt(host.length() - 1))) {
+					throw new IllegalArgumentException("Invalid IPv4 literal " + host);
+				}
+				boolean wildcard = host.startsWith("*.");
+				if (!isHostname(host, wildcard ? 2 : 0, host.length())) {
+					throw new IllegalArgumentException("Invalid host " + host);
+				}
+			}
+			canonical.add(host.toLowerCase(Locale.ROOT));
+		}
+		return canonical.toArray(new String[0]);
+	}
+
+	/**
+	 * Shares the tables compiled from the same hosts. Like {@link #share}, these are keyed
+	 * by a fingerprint of the hosts so that the store does not keep them, and so the shared
+	 * tables are checked against the hosts before being used.
+	 */
+	private static Tables intern(String[] hosts) {
+		SharedRuleTables.Key key = new SharedRuleTables.Key("hostnames", hosts.length, Arrays.hashCode(hosts));
+		Tables shared = SharedRuleTables.intern(key, () -> compile(hosts));
+		if (shared.compiledFrom(hosts)) {
+			return shared;
+		}
+		return compile(hosts);
+	}
+
+	private static Tables compile(String[] hosts) {
+		TrieNode root = new TrieNode();
+		List<Integer> ipv4 = new ArrayList<>();
+		List<long[]> ipv6 = new ArrayList<>();
+		for (String host : hosts) {
+			if (host.charAt(0) == '[') {
+				long[] address = new long[2];
+				parseIpv6(host, host.length(), address);
+				ipv6.add(address);
+				continue;
+			}
+			long address = parseIpv4(host, host.length());
+			if (address >= 0) {
+				ipv4.add((int) address);
+				continue;
+			}
+			boolean wildcard = host.startsWith("*.");
+			root.insert(wildcard ? host.substring(1) : host, wildcard ? WILDCARD : EXACT);
+		}
+		int[][] trie = root.flatten();
+		return new Tables(trie[0], trie[1], sortedDistinct(ipv4), sortedPairs(ipv6));
+	}
+
+	private static int[] sortedDistinct(List<Integer> addresses) {
+		return addresses.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+	}
+
+	/**
+	 * Shares tables that were compiled elsewhere, like those read from
+	 * {@link CompiledFirewallRules}. These are keyed by a fingerprint of their content
+	 * rather than the content itself, so that the store does not keep a copy on the heap,
+	 * and so they are compared in full before being shared.
+	 */
+	private static Tables share(int[] nodes, int[] edges, int[] ipv4, long[] ipv6) {
+		SharedRuleTables.Key key = new SharedRuleTables.Key("hostname-tables", nodes.length, Arrays.hashCode(nodes),
+				edges.length, Arrays.hashCode(edges), Arrays.hashCode(ipv4), Arrays.hashCode(ipv6));
+		Tables shared = SharedRuleTables.intern(key, () -> new Tables(nodes, edges, ipv4, ipv6));
+		if (shared.contentEquals(nodes, edges, ipv4, ipv6)) {
+			return shared;
+		}
+		return new Tables(nodes, edges, ipv4, ipv6);
+	}
+
+	private static int[] toArray(IntBuffer buffer) {
+		int[] values = new int[buffer.limit()];
+		buffer.duplicate().get(values);
+		return values;
+	}
+
+	private boolean matchesIpv6(String host, int length) {
+		if (length > MAX_IPV6_LITERAL_LENGTH || this.ipv6.length == 0) {
+			return false;
+		}
+		long[] address = new long[2];
+		if (!parseIpv6(host, length, address)) {
+			return false;
+		}
+		int low = 0;
+		int high = this.ipv6.length / 2 - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(this.ipv6[middle * 2], this.ipv6[middle * 2 + 1], address[0], address[1]);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a dotted-quad IPv4 literal, rejecting octets with leading zeros since some
+	 * parsers read those as octal
+	 *
+	 * @return the address, or -1 if the value is not an IPv4 literal
+	 */
+	private static long parseIpv4(String value, int length) {
+		long address = 0;
+		int octets = 0;
+		int i = 0;
+		while (i < length) {
+			int start = i;
+			int octet = 0;
+			while (i < length && isDigit(value.charAt(i)) && i - start < 3) {
+				octet = octet * 10 + (value.charAt(i) - '0');
+				i++;
+			}
+			int digits = i - start;
+			if (digits == 0 || octet > 255 || (digits > 1 && value.charAt(start) == '0')) {
+				return -1;
+			}
+			address = address << 8 | octet;
+			octets++;
+			if (i == length) {
+				break;
+			}
+			if (value.charAt(i) != '.' || octets == 4) {
+				return -1;
+			}
+			i++;
+		}
+		return octets == 4 && value.charAt(length - 1) != '.' ? address : -1;
+	}
+
+	/**
+	 * Parses a bracketed IPv6 literal, including the {@code ::} shorthand and a trailing
+	 * IPv4 address. Zone identifiers are not allowed.
+	 *
+	 * @param address receives the high and low bits of the address
+	 * @return true if the value is an IPv6 literal
+	 */
+	private static boolean parseIpv6(String value, int length, long[] address) {
+		if (length < 4 || value.charAt(0) != '[' || value.charAt(length - 1) != ']') {
+			return false;
+		}
+		int end = length - 1;
+		long headHigh = 0;
+		long headLow = 0;
+		long tailHigh = 0;
+		long tailLow = 0;
+		int headGroups = 0;
+		int tailGroups = 0;
+		boolean compressed = false;
+		int i = 1;
+		if (value.startsWith("::", i)) {
+			compressed = true;
+			i += 2;
+		}
+		while (i < end) {
+			int start = i;
+			int group = 0;
+			while (i < end && i - start < 4 && hex(value.charAt(i)) >= 0) {
+				group = group << 4 | hex(value.charAt(i));
+				i++;
+			}
+			if (i < end && value.charAt(i) == '.') {
+				long ipv4 = parseIpv4(value.substring(start, end), end - start);
+				if (ipv4 < 0 || headGroups + tailGroups > 6) {
+					return false;
+				}
+				if (compressed) {
+					tailHigh = shiftIn(tailHigh, tailLow, 32);
+					tailLow = tailLow << 32 | ipv4;
+					tailGroups += 2;
+				} else {
+					headHigh = shiftIn(headHigh, headLow, 32);
+					headLow = headLow << 32 | ipv4;
+					headGroups += 2;
+				}
+				i = end;
+				break;
+			}
+			if (i == start) {
+				return false;
+			}
+			if (compressed) {
+				tailHigh = shiftIn(tailHigh, tailLow, 16);
+				tailLow = tailLow << 16 | group;
+				tailGroups++;
+			} else {
+				headHigh = shiftIn(headHigh, headLow, 16);
+				headLow = headLow << 16 | group;
+				headGroups++;
+			}
+			if (headGroups + tailGroups > 8) {
+				return false;
+			}
+			if (i == end) {
+				break;
+			}
+			if (value.charAt(i) != ':') {
+				return false;
+			}
+			i++;
+			if (i < end && value.charAt(i) == ':') {
+				if (compressed) {
+					return false;
+				}
+				compressed = true;
+				i++;
+			} else if (i == end) {
+				return false;
+			}
+		}
+		int groups = headGroups + tailGroups;
+		if (compressed ? groups > 7 : groups != 8) {
+			return false;
+		}
+		for (int shifted = headGroups; shifted < 8; shifted++) {
+			headHigh = shiftIn(headHigh, headLow, 16);
+			headLow = headLow << 16;
+		}
+		address[0] = headHigh | tailHigh;
+		address[1] = headLow | tailLow;
+		return true;
+	}
+
+	private static long shiftIn(long high, long low, int bits) {
+		return high << bits | low >>> (64 - bits);
+	}
+
+	/**
+	 * Whether the value is a sequence of non-empty labels separated by periods. A label is
+	 * made of letters, digits, hyphens, and underscores, and neither starts nor ends with a
+	 * hyphen. Underscores are not allowed in hostnames, but they are common in the names of
+	 * internal services, and containers accept them.
+	 */
+	private static boolean isHostname(String value, int start, int end) {
+		if (start >= end) {
+			return false;
+		}
+		char previous = '.';
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c == '.') {
+				if (previous == '.' || previous == '-') {
+					return false;
+				}
+			} else if (c == '-') {
+				if (previous == '.') {
+					return false;
+				}
+			} else if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_')) {
+				return false;
+			}
+			previous = c;
+		}
+		return previous != '.' && previous != '-';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int hex(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static int compare(long high, long low, long otherHigh, long otherLow) {
+		int comparison = Long.compareUnsigned(high, otherHigh);
+		return comparison != 0 ? comparison : Long.compareUnsigned(low, otherLow);
+	}
+
+	private static long[] sortedPairs(List<long[]> addresses) {
+		addresses.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+		long[] pairs = new long[addresses.size() * 2];
+		int size = 0;
+		for (long[] address : addresses) {
+			if (size > 0 && compare(pairs[size * 2 - 2], pairs[size * 2 - 1], address[0], address[1]) == 0) {
+				continue;
+			}
+			pairs[size * 2] = address[0];
+			pairs[size * 2 + 1] = address[1];
+			size++;
+		}
+		return Arrays.copyOf(pairs, size * 2);
+	}
+
+	/**
+	 * The compiled, immutable tables of a matcher, shared between matchers with the same
+	 * hosts
+	 */
+	private static final class Tables {
+		private final IntBuffer nodes;
+
+		private final IntBuffer edges;
+
+		private final int[] ipv4;
+
+		private final long[] ipv6;
+
+		Tables(int[] nodes, int[] edges, int[] ipv4, long[] ipv6) {
+			this.nodes = SharedRuleTables.store(nodes);
+			this.edges = SharedRuleTables.store(edges);
+			this.ipv4 = ipv4.clone();
+			this.ipv6 = ipv6.clone();
+		}
+
+		/**
+		 * Whether these tables are those compiled from the given canonical hosts: each
+		 * hostname has its flag in the trie and no other node is flagged, and the addresses
+		 * are the same
+		 */
+		boolean compiledFrom(String[] hosts) {
+			List<Integer> ipv4 = new ArrayList<>();
+			List<long[]> ipv6 = new ArrayList<>();
+			int hostnames = 0;
+			for (String host : hosts) {
+				if (host.charAt(0) == '[') {
+					long[] address = new long[2];
+					parseIpv6(host, host.length(), address);
+					ipv6.add(address);
+					continue;
+				}
+				long address = parseIpv4(host, host.length());
+				if (address >= 0) {
+					ipv4.add((int) address);
+					continue;
+				}
+				boolean wildcard = host.startsWith("*.");
+				int node = 0;
+				for (int i = host.length() - 1; i >= (wildcard ? 1 : 0) && node >= 0; i--) {
+					node = child(this.nodes, this.edges, node, host.charAt(i));
+				}
+				if (node < 0 || (this.nodes.get(node * NODE_SIZE + 2) & (wildcard ? WILDCARD : EXACT)) == 0) {
+					return false;
+				}
+				hostnames++;
+			}
+			int flagged = 0;
+			for (int node = 0; node < this.nodes.limit() / NODE_SIZE; node++) {
+				flagged += Integer.bitCount(this.nodes.get(node * NODE_SIZE + 2));
+			}
+			return flagged == hostnames && Arrays.equals(this.ipv4, sortedDistinct(ipv4))
+					&& Arrays.equals(this.ipv6, sortedPairs(ipv6));
+		}
+
+		boolean contentEquals(int[] nodes, int[] edges, int[] ipv4, long[] ipv6) {
+			return this.nodes.equals(IntBuffer.wrap(nodes)) && this.edges.equals(IntBuffer.wrap(edges))
+					&& Arrays.equals(this.ipv4, ipv4) && Arrays.equals(this.ipv6, ipv6);
+		}
+	}
+
+	private static final class TrieNode {
+		private final Map<Character, TrieNode> children = new TreeMap<>();
+
+		private int flags;
+
+		private int id;
+
+		void insert(String hostname, int flag) {
+			TrieNode node = this;
+			for (int i = hostname.length() - 1; i >= 0; i--) {
+				char c = Character.toLowerCase(hostname.charAt(i));
+				node = node.children.computeIfAbsent(c, key -> new TrieNode());
+			}
+			node.flags |= flag;
+		}
+
+		/**
+		 * Numbers the nodes breadth-first so that the edges of each node are contiguous
+		 *
+		 * @return the node table and the edge table
+		 */
+		int[][] flatten() {
+			List<TrieNode> ordered = new ArrayList<>();
+			Deque<TrieNode> queue = new ArrayDeque<>();
+			queue.add(this);
+			int edgeCount = 0;
+			while (!queue.isEmpty()) {
+				TrieNode node = queue.poll();
+				node.id = ordered.size();
+				ordered.add(node);
+				edgeCount += node.children.size();
+				queue.addAll(node.children.values());
+			}
+			int[] nodes = new int[ordered.size() * NODE_SIZE];
+			int[] edges = new int[edgeCount * 2];
+			int edge = 0;
+			for (TrieNode node : ordered) {
+				nodes[node.id * NODE_SIZE] = edge;
+				nodes[node.id * NODE_SIZE + 1] = node.children.size();
+				nodes[node.id * NODE_SIZE + 2] = node.flags;
+				for (Map.Entry<Character, TrieNode> child : node.children.entrySet()) {
+					edges[edge * 2] = child.getKey();
+					edges[edge * 2 + 1] = child.getValue().id;
+					edge++;
+				}
+			}
+			return new int[][] { nodes, edges };
+		}
+	}
+}
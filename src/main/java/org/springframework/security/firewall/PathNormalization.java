@@ -0,0 +1,167 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * <p>
+ * Finds and removes the path traversal segments, {@code "."} and {@code ".."}, of a path
+ * in a single forward pass.
+ * </p>
+ *
+ * @see Gh8644StrictHttpFirewall#setNormalizePaths(boolean)
+ * @since 5.4
+ */
+public final class PathNormalization {
+
+	private PathNormalization() {
+	}
+
+	/**
+	 * Finds the first path traversal segment of the path
+	 *
+	 * @param path the path, may be null
+	 * @return the first violation, or {@code null} if the path is normalized
+	 */
+	public static Violation firstViolation(String path) {
+		int index = indexOfViolation(path);
+		if (index < 0) {
+			return null;
+		}
+		boolean parent = index + 1 < path.length() && path.charAt(index + 1) == '.';
+		return new Violation(index, parent ? SegmentType.PARENT_DIRECTORY : SegmentType.CURRENT_DIRECTORY);
+	}
+
+	/**
+	 * Finds the first path traversal segment of the path without allocating
+	 *
+	 * @param path the path, may be null
+	 * @return the index at which the first {@code "."} or {@code ".."} segment starts, or
+	 * -1 if the path is normalized
+	 */
+	static int indexOfViolation(String path) {
+		if (path == null) {
+			return -1;
+		}
+		int length = path.length();
+		int start = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i == length || path.charAt(i) == '/') {
+				int segment = i - start;
+				if ((segment == 1 || segment == 2) && path.charAt(start) == '.'
+						&& (segment == 1 || path.charAt(start + 1) == '.')) {
+					return start;
+				}
+				start = i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the path traversal segments of an absolute path, so {@code "/a/./b"} becomes
+	 * {@code "/a/b"} and {@code "/a/b/../c"} becomes {@code "/a/c"}.
+	 *
+	 * @param path the absolute path
+	 * @param buffer a buffer to build the normalized path in, reused across calls
+	 * @return the normalized path, or {@code null} if the path is not absolute or
+	 * traverses above its root
+	 */
+	static String normalize(String path, StringBuilder buffer) {
+		if (path.isEmpty() || path.charAt(0) != '/') {
+			return null;
+		}
+		buffer.setLength(0);
+		int length = path.length();
+		int depth = 0;
+		int start = 1;
+		for (int i = 1; i <= length; i++) {
+			if (i < length && path.charAt(i) != '/') {
+				continue;
+			}
+			int segment = i - start;
+			boolean current = segment == 1 && path.charAt(start) == '.';
+			boolean parent = segment == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.';
+			if (parent) {
+				if (depth == 0) {
+					return null;
+				}
+				buffer.setLength(buffer.lastIndexOf("/"));
+				depth--;
+			}
+			if (current || parent) {
+				if (i == length) {
+					buffer.append('/');
+				}
+			} else {
+				buffer.append('/').append(path, start, i);
+				depth++;
+			}
+			start = i + 1;
+		}
+		return buffer.length() == 0 ? "/" : buffer.toString();
+	}
+
+	/**
+	 * The kinds of path traversal segment
+	 */
+	public enum SegmentType {
+		/**
+		 * A {@code "."} segment
+		 */
+		CURRENT_DIRECTORY,
+
+		/**
+		 * A {@code ".."} segment
+		 */
+		PARENT_DIRECTORY
+	}
+
+	/**
+	 * Where a path traversal segment was found
+	 */
+	public static final class Violation {
+		private final int index;
+
+		private final SegmentType segmentType;
+
+		Violation(int index, SegmentType segmentType) {
+			this.index = index;
+			this.segmentType = segmentType;
+		}
+
+		/**
+		 * @return the index at which the segment starts
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		/**
+		 * @return the kind of segment
+		 */
+		public SegmentType getSegmentType() {
+			return this.segmentType;
+		}
+
+		@Override
+		public String toString() {
+			return (this.segmentType == SegmentType.PARENT_DIRECTORY ? "\"..\"" : "\".\"") + " segment at index "
+					+ this.index;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Records samples of rejected requests for later analysis.
+ * </p>
+ * <p>
+ * Samples are copied into fixed-size slots of a preallocated, lock-free, multi-producer
+ * ring buffer so that recording neither allocates nor blocks the request thread. When the
+ * buffer is full, or a rule has exceeded its samples per second, the sample is dropped and
+ * counted. A single background thread drains the buffer into a {@link RejectionSink}.
+ * </p>
+ * <p>
+ * The drainer must be started with {@link #start()}, or else the buffer fills once and
+ * every later sample is dropped. {@link Gh8644StrictHttpFirewall#setRejectionRecorder}
+ * starts it.
+ * </p>
+ *
+ * @see Gh8644StrictHttpFirewall#setRejectionRecorder(RejectionRecorder)
+ * @since 5.4
+ */
+public class RejectionRecorder implements Closeable {
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private static final int MAX_URI_LENGTH = 256;
+
+	private static final int MAX_HOST_LENGTH = 128;
+
+	private static final int RATE_COUNT_BITS = 24;
+
+	private static final long RATE_COUNT_MASK = (1L << RATE_COUNT_BITS) - 1;
+
+	private final RejectionSink sink;
+
+	private final int capacity;
+
+	private final int mask;
+
+	// Vyukov-style sequence per slot; a slot is writable when its sequence equals the producer position
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private long head;
+
+	private final byte[] rules;
+
+	private final String[] tokens;
+
+	private final long[] timestamps;
+
+	private final char[] uris;
+
+	private final int[] uriLengths;
+
+	private final char[] hosts;
+
+	private final int[] hostLengths;
+
+	// per rule, the current second in the upper bits and the samples taken in that second in the lower bits
+	private final AtomicLongArray rates = new AtomicLongArray(RejectionRule.values().length);
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile int maxSamplesPerSecond = 100;
+
+	private volatile long drainIntervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private volatile boolean running;
+
+	private boolean closed;
+
+	private final Object lifecycleMonitor = new Object();
+
+	private Thread drainer;
+
+	/**
+	 * Construct a {@link RejectionRecorder} with a capacity of 1024 samples
+	 *
+	 * @param sink where to write drained samples
+	 */
+	public RejectionRecorder(RejectionSink sink) {
+		this(sink, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Construct a {@link RejectionRecorder}
+	 *
+	 * @param sink where to write drained samples
+	 * @param capacity the number of samples the ring buffer holds, rounded up to a power of two
+	 */
+	public RejectionRecorder(RejectionSink sink, int capacity) {
+		if (sink == null) {
+			throw new IllegalArgumentException("sink cannot be null");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.sink = sink;
+		this.capacity = powerOfTwo(capacity);
+		this.mask = this.capacity - 1;
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			this.sequences.set(i, i);
+		}
+		this.rules = new byte[this.capacity];
+		this.tokens = new String[this.capacity];
+		this.timestamps = new long[this.capacity];
+		this.uris = new char[this.capacity * MAX_URI_LENGTH];
+		this.uriLengths = new int[this.capacity];
+		this.hosts = new char[this.capacity * MAX_HOST_LENGTH];
+		this.hostLengths = new int[this.capacity];
+	}
+
+	/**
+	 * Sets the maximum number of samples recorded for each rule per second. The default
+	 * is 100.
+	 *
+	 * @param maxSamplesPerSecond the maximum samples per rule per second, at most 16777215
+	 */
+	public void setMaxSamplesPerSecond(int maxSamplesPerSecond) {
+		if (maxSamplesPerSecond < 0 || maxSamplesPerSecond > RATE_COUNT_MASK) {
+			throw new IllegalArgumentException("maxSamplesPerSecond must be between 0 and " + RATE_COUNT_MASK);
+		}
+		this.maxSamplesPerSecond = maxSamplesPerSecond;
+	}
+
+	/**
+	 * Sets how long the drainer waits when the buffer is empty. The default is 100
+	 * milliseconds.
+	 *
+	 * @param drainInterval the interval
+	 * @param unit the unit of the interval
+	 */
+	public void setDrainInterval(long drainInterval, TimeUnit unit) {
+		if (drainInterval <= 0) {
+			throw new IllegalArgumentException("drainInterval must be positive");
+		}
+		this.drainIntervalNanos = unit.toNanos(drainInterval);
+	}
+
+	/**
+	 * Starts the background drainer, if it is not already running
+	 *
+	 * @throws IllegalStateException if the recorder was closed
+	 */
+	public void start() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.closed) {
+				throw new IllegalStateException("The recorder was closed");
+			}
+			if (this.running) {
+				return;
+			}
+			this.running = true;
+			this.drainer = new Thread(this::drainLoop, "firewall-rejection-drainer");
+			this.drainer.setDaemon(true);
+			this.drainer.start();
+		}
+	}
+
+	/**
+	 * Stops the background drainer, drains any remaining samples, and closes the sink. A
+	 * closed recorder can not be started again.
+	 *
+	 * @throws IOException if the sink fails to flush or close
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this.lifecycleMonitor) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			Thread drainer = this.drainer;
+			this.running = false;
+			if (drainer != null) {
+				LockSupport.unpark(drainer);
+				try {
+					drainer.join();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				this.drainer = null;
+			} else {
+				drain();
+			}
+			this.sink.flush();
+			this.sink.close();
+		}
+	}
+
+	/**
+	 * The number of samples that were dropped, either because the buffer was full or
+	 * because the rule exceeded its samples per second
+	 *
+	 * @return the number of dropped samples
+	 */
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Records a sample of a rejection. This method does not allocate or block.
+	 *
+	 * @param rule the rule that rejected the request
+	 * @param token the offending token, may be null
+	 * @param uri the request uri, truncated to 256 characters, may be null
+	 * @param host the host, truncated to 128 characters, may be null
+	 * @return true if the sample was recorded, false if it was dropped
+	 */
+	public boolean record(RejectionRule rule, String token, String uri, String host) {
+		long now = System.currentTimeMillis();
+		if (!tryAcquire(rule, now / 1000)) {
+			this.dropped.incrementAndGet();
+			return false;
+		}
+		long position;
+		int index;
+		for (;;) {
+			position = this.tail.get();
+			index = (int) position & this.mask;
+			long delta = this.sequences.get(index) - position;
+			if (delta == 0) {
+				if (this.tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if (delta < 0) {
+				this.dropped.incrementAndGet();
+				return false;
+			}
+		}
+		this.rules[index] = rule.code();
+		this.tokens[index] = token;
+		this.timestamps[index] = now;
+		this.uriLengths[index] = copy(uri, this.uris, index * MAX_URI_LENGTH, MAX_URI_LENGTH);
+		this.hostLengths[index] = copy(host, this.hosts, index * MAX_HOST_LENGTH, MAX_HOST_LENGTH);
+		this.sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Writes all available samples to the sink. The ring buffer has a single consumer, so
+	 * this is only called by the background drainer, or on close once it has stopped.
+	 *
+	 * @return the number of samples drained
+	 * @throws IOException if the sink fails to write
+	 */
+	private int drain() throws IOException {
+		Sample sample = new Sample();
+		int drained = 0;
+		for (;;) {
+			int index = (int) this.head & this.mask;
+			if (this.sequences.get(index) != this.head + 1) {
+				return drained;
+			}
+			sample.rule = RejectionRule.fromCode(this.rules[index]);
+			sample.token = this.tokens[index];
+			sample.timestamp = this.timestamps[index];
+			sample.uri = new String(this.uris, index * MAX_URI_LENGTH, this.uriLengths[index]);
+			sample.host = new String(this.hosts, index * MAX_HOST_LENGTH, this.hostLengths[index]);
+			this.tokens[index] = null;
+			this.sequences.lazySet(index, this.head + this.capacity);
+			this.head++;
+			this.sink.write(sample);
+			drained++;
+		}
+	}
+
+	private void drainLoop() {
+		while (this.running) {
+			try {
+				if (drain() > 0) {
+					this.sink.flush();
+				} else {
+					LockSupport.parkNanos(this, this.drainIntervalNanos);
+				}
+			} catch (IOException ex) {
+				this.dropped.incrementAndGet();
+			}
+		}
+		try {
+			drain();
+		} catch (IOException ex) {
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	private boolean tryAcquire(RejectionRule rule, long second) {
+		int index = rule.ordinal();
+		for (;;) {
+			long current = this.rates.get(index);
+			long count = (current >>> RATE_COUNT_BITS) == second ? current & RATE_COUNT_MASK : 0;
+			if (count >= this.maxSamplesPerSecond) {
+				return false;
+			}
+			long next = (second << RATE_COUNT_BITS) | (count + 1);
+			if (this.rates.compareAndSet(index, current, next)) {
+				return true;
+			}
+		}
+	}
+
+	private static int powerOfTwo(int value) {
+		int highest = Integer.highestOneBit(value);
+		return highest == value ? value : highest << 1;
+	}
+
+	private static int copy(String value, char[] destination, int offset, int max) {
+		if (value == null) {
+			return 0;
+		}
+		int length = Math.min(value.length(), max);
+		value.getChars(0, length, destination, offset);
+		return length;
+	}
+
+	/**
+	 * A sample of a rejected request, as handed to a {@link RejectionSink}. The sample
+	 * instance is reused by the drainer and so should not be retained.
+	 */
+	public static final class Sample {
+		private RejectionRule rule;
+
+		private String token;
+
+		private long timestamp;
+
+		private String uri;
+
+		private String host;
+
+		Sample() {
+		}
+
+		/**
+		 * @return the rule that rejected the request
+		 */
+		public RejectionRule getRule() {
+			return this.rule;
+		}
+
+		/**
+		 * @return the offending token, or {@code null} if the rule has no single token
+		 */
+		public String getToken() {
+			return this.token;
+		}
+
+		/**
+		 * @return the time of rejection, in milliseconds since the epoch
+		 */
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		/**
+		 * @return the request uri, possibly truncated
+		 */
+		public String getUri() {
+			return this.uri;
+		}
+
+		/**
+		 * @return the host, possibly truncated
+		 */
+		public String getHost() {
+			return this.host;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The rules that {@link Gh8644StrictHttpFirewall} applies, used to identify why a
+ * request was rejected.
+ *
+ * @since 5.4
+ */
+public enum RejectionRule {
+
+	/**
+	 * The HTTP method was not allowed
+	 */
+	HTTP_METHOD(1),
+
+	/**
+	 * The client was recently rejected too many times
+	 */
+	CLIENT_BLOCKED(12),
+
+	/**
+	 * The encoded URL contained a value from the encoded url blocklist
+	 */
+	ENCODED_URL_BLOCKLIST(2),
+
+	/**
+	 * The decoded URL contained a value from the decoded url blocklist
+	 */
+	DECODED_URL_BLOCKLIST(3),
+
+	/**
+	 * A layer of percent-decoding of the URL produced a forbidden character, or the URL
+	 * was encoded more deeply than allowed
+	 */
+	URL_DECODING_INSPECTION(11),
+
+	/**
+	 * The hostname was not allowed
+	 */
+	HOSTNAME(4),
+
+	/**
+	 * One of the header names was not allowed
+	 */
+	HEADER_NAME(5),
+
+	/**
+	 * One of the header values was not allowed
+	 */
+	HEADER_VALUE(6),
+
+	/**
+	 * One of the parameter names was not allowed
+	 */
+	PARAMETER_NAME(7),
+
+	/**
+	 * One of the parameter values was not allowed
+	 */
+	PARAMETER_VALUE(8),
+
+	/**
+	 * The URL was not normalized
+	 */
+	NOT_NORMALIZED(9),
+
+	/**
+	 * The request URI contained characters that are not printable ASCII
+	 */
+	NON_PRINTABLE_CHARACTER(10),
+
+	/**
+	 * The request body contained a JSON key or string value, or a multipart part name or
+	 * filename, that was not allowed, or the body was too large to inspect
+	 */
+	REQUEST_BODY(13);
+
+	private static final RejectionRule[] BY_CODE;
+
+	static {
+		int max = 0;
+		for (RejectionRule rule : values()) {
+			max = Math.max(max, rule.code);
+		}
+		BY_CODE = new RejectionRule[max + 1];
+		for (RejectionRule rule : values()) {
+			BY_CODE[rule.code] = rule;
+		}
+	}
+
+	private final byte code;
+
+	RejectionRule(int code) {
+		this.code = (byte) code;
+	}
+
+	/**
+	 * A compact code for this rule, suitable for storing in a {@code byte}. Codes are
+	 * stable across releases, since they may be stored, and so new rules get new codes
+	 * rather than renumbering existing ones.
+	 *
+	 * @return the code for this rule, never {@code 0}
+	 */
+	public byte code() {
+		return this.code;
+	}
+
+	/**
+	 * Looks up the rule for the given code
+	 *
+	 * @param code the code, as returned by {@link #code()}
+	 * @return the rule, or {@code null} if the code is {@code 0} or unknown
+	 */
+	public static RejectionRule fromCode(byte code) {
+		if (code <= 0 || code >= BY_CODE.length) {
+			return null;
+		}
+		return BY_CODE[code];
+	}
+}
@@ -0,0 +1,51 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where a {@link RejectionRecorder} writes the samples it drains. Samples are written
+ * from the recorder's background thread, never from a request thread.
+ *
+ * @see FileChannelRejectionSink
+ * @since 5.4
+ */
+public interface RejectionSink extends Closeable {
+
+	/**
+	 * Writes a sample. The sample is reused after this method returns.
+	 *
+	 * @param sample the sample to write
+	 * @throws IOException if the sample cannot be written
+	 */
+	void write(RejectionRecorder.Sample sample) throws IOException;
+
+	/**
+	 * Flushes any buffered samples. Called after each batch of samples is drained.
+	 *
+	 * @throws IOException if the samples cannot be flushed
+	 */
+	default void flush() throws IOException {
+	}
+
+	@Override
+	default void close() throws IOException {
+	}
+}
@@ -0,0 +1,177 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.Arrays;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>
+ * A batch of requests to validate with
+ * {@link Gh8644StrictHttpFirewall#validate(RequestBatch)}.
+ * </p>
+ * <p>
+ * The batch is stored column-wise so that the firewall can apply each rule to every
+ * request before moving on to the next rule. Rows can come either from an
+ * {@link HttpServletRequest}, in which case headers and parameters are validated too, or
+ * from the request line of an access log, in which case they are not.
+ * </p>
+ *
+ * @since 5.4
+ */
+public final class RequestBatch {
+	private String[] methods;
+
+	private String[] requestUris;
+
+	private String[] contextPaths;
+
+	private String[] servletPaths;
+
+	private String[] pathInfos;
+
+	private String[] serverNames;
+
+	private HttpServletRequest[] requests;
+
+	private int size;
+
+	/**
+	 * Construct an empty {@link RequestBatch}
+	 *
+	 * @param capacity the expected number of requests
+	 */
+	public RequestBatch(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity cannot be negative");
+		}
+		this.methods = new String[capacity];
+		this.requestUris = new String[capacity];
+		this.contextPaths = new String[capacity];
+		this.servletPaths = new String[capacity];
+		this.pathInfos = new String[capacity];
+		this.serverNames = new String[capacity];
+		this.requests = new HttpServletRequest[capacity];
+	}
+
+	/**
+	 * Construct a {@link RequestBatch} of the given requests
+	 *
+	 * @param requests the requests
+	 * @return the batch
+	 */
+	public static RequestBatch of(HttpServletRequest... requests) {
+		RequestBatch batch = new RequestBatch(requests.length);
+		for (HttpServletRequest request : requests) {
+			batch.add(request);
+		}
+		return batch;
+	}
+
+	/**
+	 * Adds a request, including its headers and parameters
+	 *
+	 * @param request the request
+	 * @return the index of the request within the batch
+	 */
+	public int add(HttpServletRequest request) {
+		if (request == null) {
+			throw new IllegalArgumentException("request cannot be null");
+		}
+		int index = add(request.getMethod(), request.getRequestURI(), request.getContextPath(),
+				request.getServletPath(), request.getPathInfo(), request.getServerName());
+		this.requests[index] = request;
+		return index;
+	}
+
+	/**
+	 * Adds a request that has no headers or parameters, for example one read from an
+	 * access log
+	 *
+	 * @param method the HTTP method
+	 * @param requestUri the encoded request uri
+	 * @param contextPath the encoded context path, may be null
+	 * @param servletPath the decoded servlet path, may be null
+	 * @param pathInfo the decoded path info, may be null
+	 * @param serverName the host, may be null
+	 * @return the index of the request within the batch
+	 */
+	public int add(String method, String requestUri, String contextPath, String servletPath, String pathInfo,
+			String serverName) {
+		if (requestUri == null) {
+			throw new IllegalArgumentException("requestUri cannot be null");
+		}
+		if (this.size == this.methods.length) {
+			grow();
+		}
+		int index = this.size++;
+		this.methods[index] = method;
+		this.requestUris[index] = requestUri;
+		this.contextPaths[index] = contextPath;
+		this.servletPaths[index] = servletPath;
+		this.pathInfos[index] = pathInfo;
+		this.serverNames[index] = serverName;
+		return index;
+	}
+
+	/**
+	 * @return the number of requests in the batch
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	String[] methods() {
+		return this.methods;
+	}
+
+	String[] requestUris() {
+		return this.requestUris;
+	}
+
+	String[] contextPaths() {
+		return this.contextPaths;
+	}
+
+	String[] servletPaths() {
+		return this.servletPaths;
+	}
+
+	String[] pathInfos() {
+		return this.pathInfos;
+	}
+
+	String[] serverNames() {
+		return this.serverNames;
+	}
+
+	HttpServletRequest[] requests() {
+		return this.requests;
+	}
+
+	private void grow() {
+		int capacity = Math.max(16, this.methods.length * 2);
+		this.methods = Arrays.copyOf(this.methods, capacity);
+		this.requestUris = Arrays.copyOf(this.requestUris, capacity);
+		this.contextPaths = Arrays.copyOf(this.contextPaths, capacity);
+		this.servletPaths = Arrays.copyOf(this.servletPaths, capacity);
+		this.pathInfos = Arrays.copyOf(this.pathInfos, capacity);
+		this.serverNames = Arrays.copyOf(this.serverNames, capacity);
+		this.requests = Arrays.copyOf(this.requests, capacity);
+	}
+}
@@ -0,0 +1,604 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.Part;
+
+/**
+ * <p>
+ * Inspects JSON and multipart request bodies for
+ * {@link Gh8644StrictHttpFirewall#setRequestBodyInspector(RequestBodyInspector)}, checking
+ * JSON keys and string values and multipart part names and filenames with
+ * {@link HeaderValueRule}s.
+ * </p>
+ * <p>
+ * The body is checked as it is read, one character at a time, so that neither JSON
+ * strings nor part bodies are ever held in memory as values, and reading stops at the
+ * first violation. The bytes that were read are kept so that the body can be read again
+ * downstream, and so bodies larger than {@link #setMaxBodySize(int)} are rejected. Only
+ * request bodies whose content type is JSON, like {@code application/json} or
+ * {@code application/problem+json}, or {@code multipart/form-data} are inspected; all
+ * other bodies are left unread.
+ * </p>
+ * <p>
+ * Multipart requests are inspected through {@link HttpServletRequest#getParts()} when the
+ * container parses them, which it may already have done to read the parameters, and so
+ * the body is left to the container. Otherwise, when the container has no multipart
+ * configuration, the body is read from the input stream instead.
+ * </p>
+ * <p>
+ * Since the firewall consumes a body that it reads, downstream components must read it
+ * through {@link HttpServletRequest#getInputStream()} or
+ * {@link HttpServletRequest#getReader()}, for example with Commons FileUpload. A body
+ * that was read before the firewall, like a multipart body without its close delimiter,
+ * is rejected rather than passed on uninspected.
+ * </p>
+ *
+ * @since 5.4
+ */
+public final class RequestBodyInspector {
+	private static final int MAX_JSON_DEPTH = 64;
+
+	private static final int MAX_PART_HEADER_LENGTH = 8 * 1024;
+
+	private static final int CHUNK_SIZE = 4 * 1024;
+
+	private static final int NOT_DELIMITER = 0;
+
+	private static final int DELIMITER = 1;
+
+	private static final int CLOSE_DELIMITER = 2;
+
+	private HeaderValueRule allowedJsonKeys = HeaderValueRule.skip();
+
+	private HeaderValueRule allowedJsonStringValues = HeaderValueRule.skip();
+
+	private HeaderValueRule allowedPartNames = HeaderValueRule.skip();
+
+	private HeaderValueRule allowedFilenames = HeaderValueRule.skip();
+
+	private int maxBodySize = 1024 * 1024;
+
+	/**
+	 * <p>
+	 * Determines which JSON keys, at any depth, should be allowed. The default is to allow
+	 * any key.
+	 * </p>
+	 *
+	 * @param allowedJsonKeys the rule for JSON keys
+	 */
+	public void setAllowedJsonKeys(HeaderValueRule allowedJsonKeys) {
+		if (allowedJsonKeys == null) {
+			throw new IllegalArgumentException("allowedJsonKeys cannot be null");
+		}
+		this.allowedJsonKeys = allowedJsonKeys;
+	}
+
+	/**
+	 * <p>
+	 * Determines which JSON string values, at any depth, should be allowed. Escape
+	 * sequences are decoded before the characters are checked. The default is to allow any
+	 * string value.
+	 * </p>
+	 *
+	 * @param allowedJsonStringValues the rule for JSON string values
+	 */
+	public void setAllowedJsonStringValues(HeaderValueRule allowedJsonStringValues) {
+		if (allowedJsonStringValues == null) {
+			throw new IllegalArgumentException("allowedJsonStringValues cannot be null");
+		}
+		this.allowedJsonStringValues = allowedJsonStringValues;
+	}
+
+	/**
+	 * <p>
+	 * Determines which multipart part names, from the {@code Content-Disposition} header of
+	 * each part, should be allowed. The default is to allow any name.
+	 * </p>
+	 *
+	 * @param allowedPartNames the rule for part names
+	 */
+	public void setAllowedPartNames(HeaderValueRule allowedPartNames) {
+		if (allowedPartNames == null) {
+			throw new IllegalArgumentException("allowedPartNames cannot be null");
+		}
+		this.allowedPartNames = allowedPartNames;
+	}
+
+	/**
+	 * <p>
+	 * Determines which multipart filenames, from the {@code Content-Disposition} header of
+	 * each part, should be allowed. The default is to allow any filename.
+	 * </p>
+	 *
+	 * @param allowedFilenames the rule for filenames
+	 */
+	public void setAllowedFilenames(HeaderValueRule allowedFilenames) {
+		if (allowedFilenames == null) {
+			throw new IllegalArgumentException("allowedFilenames cannot be null");
+		}
+		this.allowedFilenames = allowedFilenames;
+	}
+
+	/**
+	 * <p>
+	 * Determines the largest body, in bytes, that is inspected and kept for reading
+	 * downstream. Larger bodies of an inspected content type are rejected. The default is
+	 * 1 MiB.
+	 * </p>
+	 *
+	 * @param maxBodySize the maximum size of an inspected body in bytes
+	 */
+	public void setMaxBodySize(int maxBodySize) {
+		if (maxBodySize < 0) {
+			throw new IllegalArgumentException("maxBodySize cannot be negative");
+		}
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Inspects the body of the request, if it has a content type that is inspected
+	 *
+	 * @return the result, or {@code null} if the body was not read, either because it was
+	 * not inspected or because its parts were inspected as parsed by the container
+	 */
+	Inspection inspect(HttpServletRequest request) throws IOException {
+		String contentType = request.getContentType();
+		if (contentType == null) {
+			return null;
+		}
+		String mediaType = mediaType(contentType);
+		boolean json = mediaType.equals("application/json") || mediaType.endsWith("+json");
+		boolean multipart = mediaType.equals("multipart/form-data");
+		if (!json && !multipart) {
+			return null;
+		}
+		if (request.getContentLengthLong() > this.maxBodySize) {
+			return new Inspection(null, 0, null, "the body is larger than " + this.maxBodySize + " bytes");
+		}
+		String boundary = multipart ? parameter(contentType, "boundary") : null;
+		if (multipart && (boundary == null || boundary.isEmpty())) {
+			return new Inspection(null, 0, null, "the multipart body has no boundary");
+		}
+		if (multipart) {
+			Collection<Part> parts = parts(request);
+			if (parts != null) {
+				String violation = inspectParts(parts);
+				return violation == null ? null : new Inspection(null, 0, null, violation);
+			}
+		}
+		// JSON is UTF-8 unless declared otherwise, while other text defaults to ISO-8859-1
+		String encoding = request.getCharacterEncoding();
+		Charset charset = encoding != null && Charset.isSupported(encoding) ? Charset.forName(encoding)
+				: json ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+		Capture body = new Capture(request.getInputStream(), this.maxBodySize);
+		String violation;
+		if (json) {
+			violation = inspectJson(new InputStreamReader(body, charset));
+		} else {
+			violation = inspectMultipart(body, ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1));
+		}
+		if (violation == null) {
+			// keep the epilogue, if any, so that the body reads the same downstream
+			body.skipToEnd();
+		}
+		if (body.overflowed) {
+			violation = "the body is larger than " + this.maxBodySize + " bytes";
+		} else if (body.length == 0 && request.getContentLengthLong() > 0) {
+			violation = "the body was already read";
+		}
+		return new Inspection(body.buffer, body.length, charset, violation);
+	}
+
+	/**
+	 * @return the parts as parsed by the container, or {@code null} if it does not parse
+	 * them, in which case it has not read the body either
+	 */
+	private static Collection<Part> parts(HttpServletRequest request) throws IOException {
+		try {
+			return request.getParts();
+		} catch (IllegalStateException | ServletException ex) {
+			return null;
+		}
+	}
+
+	private String inspectParts(Collection<Part> parts) {
+		for (Part part : parts) {
+			String disposition = part.getHeader("Content-Disposition");
+			String violation = disposition != null ? inspectContentDisposition(disposition)
+					: inspectNames(part.getName(), part.getSubmittedFileName(), null);
+			if (violation != null) {
+				return violation;
+			}
+		}
+		return null;
+	}
+
+	private String inspectJson(Reader body) throws IOException {
+		char[] chunk = new char[CHUNK_SIZE];
+		// one bit for each open container, set for objects and clear for arrays
+		long objects = 0;
+		int depth = 0;
+		boolean expectingKey = false;
+		boolean inString = false;
+		boolean escaped = false;
+		int unicodeDigits = 0;
+		int unicode = 0;
+		boolean inKey = false;
+		HeaderValueRule rule = null;
+		int position = 0;
+		for (int read = body.read(chunk); read != -1; read = body.read(chunk)) {
+			for (int i = 0; i < read; i++) {
+				char c = chunk[i];
+				if (inString) {
+					if (unicodeDigits > 0) {
+						int digit = Character.digit(c, 16);
+						if (digit != -1) {
+							unicode = (unicode << 4) | digit;
+							if (--unicodeDigits > 0) {
+								continue;
+							}
+							c = (char) unicode;
+						}
+						unicodeDigits = 0;
+					} else if (escaped) {
+						escaped = false;
+						if (c == 'u') {
+							unicodeDigits = 4;
+							unicode = 0;
+							continue;
+						}
+						c = unescape(c);
+					} else if (c == '\\') {
+						escaped = true;
+						continue;
+					} else if (c == '"') {
+						inString = false;
+						continue;
+					}
+					if (!rule.allows(c, ++position)) {
+						return inKey ? "a JSON key is not allowed"
+								: "a JSON string value is not allowed";
+					}
+					continue;
+				}
+				switch (c) {
+				case '"':
+					inString = true;
+					inKey = expectingKey && (objects & (1L << (depth - 1))) != 0;
+					rule = inKey ? this.allowedJsonKeys : this.allowedJsonStringValues;
+					position = 0;
+					break;
+				case '{':
+				case '[':
+					if (depth == MAX_JSON_DEPTH) {
+						return "the JSON is nested more than " + MAX_JSON_DEPTH + " levels deep";
+					}
+					objects = c == '{' ? objects | (1L << depth) : objects & ~(1L << depth);
+					depth++;
+					expectingKey = c == '{';
+					break;
+				case '}':
+				case ']':
+					depth = Math.max(depth - 1, 0);
+					expectingKey = false;
+					break;
+				case ':':
+					expectingKey = false;
+					break;
+				case ',':
+					expectingKey = depth > 0;
+					break;
+				default:
+				}
+			}
+		}
+		return null;
+	}
+
+	private static char unescape(char c) {
+		switch (c) {
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		default:
+			return c;
+		}
+	}
+
+	/**
+	 * Reads the body line by line, keeping at most one header, unfolded, and checks the
+	 * {@code Content-Disposition} header of each part. A body that ends before its close
+	 * delimiter is rejected, since it may have been read, in part or in full, before the
+	 * firewall.
+	 */
+	private String inspectMultipart(InputStream body, byte[] boundary) throws IOException {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		byte[] line = new byte[MAX_PART_HEADER_LENGTH];
+		StringBuilder header = new StringBuilder();
+		int length = 0;
+		boolean truncated = false;
+		boolean inHeaders = false;
+		for (int read = body.read(chunk); read != -1; read = body.read(chunk)) {
+			for (int i = 0; i < read; i++) {
+				byte b = chunk[i];
+				if (b != '\n') {
+					if (length < line.length) {
+						line[length++] = b;
+					} else {
+						truncated = true;
+					}
+					continue;
+				}
+				int end = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+				length = 0;
+				int delimiter = delimiter(line, end, boundary);
+				if (delimiter != NOT_DELIMITER || (inHeaders && (end == 0 || !isFolded(line, end)))) {
+					// the header so far is complete
+					String violation = inspectPartHeader(header);
+					if (violation != null) {
+						return violation;
+					}
+					header.setLength(0);
+				}
+				if (delimiter == CLOSE_DELIMITER) {
+					return null;
+				}
+				if (delimiter == DELIMITER) {
+					inHeaders = true;
+				} else if (inHeaders) {
+					if (truncated || header.length() + end > MAX_PART_HEADER_LENGTH) {
+						return "a part header is longer than " + MAX_PART_HEADER_LENGTH + " bytes";
+					}
+					if (end == 0) {
+						inHeaders = false;
+					} else {
+						header.append(new String(line, 0, end, StandardCharsets.UTF_8));
+					}
+				}
+				truncated = false;
+			}
+		}
+		return "the multipart body ends before its close delimiter";
+	}
+
+	/**
+	 * Whether the header line continues the previous one, as obsolete line folding allows
+	 */
+	private static boolean isFolded(byte[] line, int length) {
+		return length > 0 && (line[0] == ' ' || line[0] == '\t');
+	}
+
+	private String inspectPartHeader(CharSequence header) {
+		String value = header.toString();
+		int colon = value.indexOf(':');
+		if (colon == -1 || !value.substring(0, colon).trim().equalsIgnoreCase("Content-Disposition")) {
+			return null;
+		}
+		return inspectContentDisposition(value.substring(colon + 1));
+	}
+
+	private String inspectContentDisposition(String value) {
+		return inspectNames(parameter(value, "name"), parameter(value, "filename"), parameter(value, "filename*"));
+	}
+
+	private String inspectNames(String name, String filename, String extendedFilename) {
+		if (name != null && !this.allowedPartNames.test(name)) {
+			return "a part name is not allowed";
+		}
+		if (filename != null && !this.allowedFilenames.test(filename)) {
+			return "a filename is not allowed";
+		}
+		if (extendedFilename != null && !this.allowedFilenames.test(extendedFilename)) {
+			return "a filename is not allowed";
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the line is a delimiter that starts a part, the delimiter that closes
+	 * the body, or neither
+	 */
+	private static int delimiter(byte[] line, int length, byte[] boundary) {
+		if (length < boundary.length) {
+			return NOT_DELIMITER;
+		}
+		for (int i = 0; i < boundary.length; i++) {
+			if (line[i] != boundary[i]) {
+				return NOT_DELIMITER;
+			}
+		}
+		int i = boundary.length;
+		if (i + 1 < length && line[i] == '-' && line[i + 1] == '-') {
+			return CLOSE_DELIMITER;
+		}
+		// a delimiter may be followed by transport padding
+		for (; i < length; i++) {
+			if (line[i] != ' ' && line[i] != '\t') {
+				return NOT_DELIMITER;
+			}
+		}
+		return DELIMITER;
+	}
+
+	private static String mediaType(String contentType) {
+		int semicolon = contentType.indexOf(';');
+		String mediaType = semicolon == -1 ? contentType : contentType.substring(0, semicolon);
+		return mediaType.trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Reads a parameter, like {@code boundary} or {@code filename}, from a header value of
+	 * the form {@code value; name=token; name="quoted \"string\""}
+	 *
+	 * @return the parameter value, or {@code null} if the header does not have it
+	 */
+	static String parameter(String header, String name) {
+		int i = header.indexOf(';');
+		while (i != -1 && i < header.length()) {
+			int equals = header.indexOf('=', i + 1);
+			if (equals == -1) {
+				return null;
+			}
+			String parameterName = header.substring(i + 1, equals).trim();
+			int start = equals + 1;
+			while (start < header.length() && header.charAt(start) == ' ') {
+				start++;
+			}
+			StringBuilder value = new StringBuilder();
+			int end;
+			if (start < header.length() && header.charAt(start) == '"') {
+				end = start + 1;
+				while (end < header.length() && header.charAt(end) != '"') {
+					char c = header.charAt(end);
+					if (c == '\\' && end + 1 < header.length()) {
+						c = header.charAt(++end);
+					}
+					value.append(c);
+					end++;
+				}
+				end = header.indexOf(';', end);
+			} else {
+				end = header.indexOf(';', start);
+				value.append(header, start, end == -1 ? header.length() : end);
+			}
+			if (parameterName.equalsIgnoreCase(name)) {
+				return value.toString().trim();
+			}
+			i = end;
+		}
+		return null;
+	}
+
+	/**
+	 * The result of inspecting a body: the bytes that were read, and the violation, if any
+	 */
+	static final class Inspection {
+		private final byte[] body;
+
+		private final int length;
+
+		private final Charset charset;
+
+		private final String violation;
+
+		Inspection(byte[] body, int length, Charset charset, String violation) {
+			this.body = body;
+			this.length = length;
+			this.charset = charset;
+			this.violation = violation;
+		}
+
+		byte[] getBody() {
+			return this.body;
+		}
+
+		int getLength() {
+			return this.length;
+		}
+
+		/**
+		 * @return the charset the body was inspected with, so that it is read back the same
+		 * way
+		 */
+		Charset getCharset() {
+			return this.charset;
+		}
+
+		/**
+		 * @return why the body was rejected, or {@code null} if it was not
+		 */
+		String getViolation() {
+			return this.violation;
+		}
+	}
+
+	/**
+	 * Keeps the bytes that are read from the body, ending the body early once it grows
+	 * past the maximum size
+	 */
+	private static final class Capture extends InputStream {
+		private final InputStream body;
+
+		private final int maxSize;
+
+		private byte[] buffer = new byte[0];
+
+		private int length;
+
+		private boolean overflowed;
+
+		Capture(InputStream body, int maxSize) {
+			this.body = body;
+			this.maxSize = maxSize;
+		}
+
+		void skipToEnd() throws IOException {
+			byte[] chunk = new byte[CHUNK_SIZE];
+			int read;
+			do {
+				read = read(chunk, 0, chunk.length);
+			} while (read != -1);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.overflowed) {
+				return -1;
+			}
+			int read = this.body.read(b, off, len);
+			if (read <= 0) {
+				return read;
+			}
+			if (this.length + read > this.maxSize) {
+				this.overflowed = true;
+				return -1;
+			}
+			if (this.length + read > this.buffer.length) {
+				int capacity = Math.min(Math.max(this.buffer.length * 2, this.length + read), this.maxSize);
+				this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, CHUNK_SIZE));
+			}
+			System.arraycopy(b, off, this.buffer, this.length, read);
+			this.length += read;
+			return read;
+		}
+	}
+}
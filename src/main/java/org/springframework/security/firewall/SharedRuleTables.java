@@ -0,0 +1,164 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * A JVM-wide store of immutable compiled rule tables, interned by a hash of the
+ * configuration they were compiled from, so that firewalls with identical configuration,
+ * for example one in each of many servlet contexts, share one copy of each table and only
+ * compile it once.
+ * </p>
+ * <p>
+ * Tables are held weakly and so are released once no firewall uses them. Large tables are
+ * stored off-heap in direct buffers so that they add neither to the heap footprint nor to
+ * the work of the garbage collector.
+ * </p>
+ */
+final class SharedRuleTables {
+	/**
+	 * Tables with at least this many {@code int}s are stored off-heap
+	 */
+	static final int OFF_HEAP_THRESHOLD = 16 * 1024;
+
+	private static final ConcurrentMap<Key, TableReference> TABLES = new ConcurrentHashMap<>();
+
+	private static final ReferenceQueue<Object> RELEASED = new ReferenceQueue<>();
+
+	private SharedRuleTables() {
+	}
+
+	/**
+	 * Returns the table already compiled from the same configuration, or else compiles,
+	 * stores, and returns a new one
+	 *
+	 * @param key the configuration the table is compiled from
+	 * @param compiler compiles the table
+	 * @param <T> the type of the table
+	 * @return the shared table
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T intern(Key key, Supplier<T> compiler) {
+		expungeReleased();
+		TableReference existing = TABLES.get(key);
+		Object table = existing == null ? null : existing.get();
+		if (table != null) {
+			return (T) table;
+		}
+		T compiled = compiler.get();
+		TableReference reference = new TableReference(key, compiled);
+		for (;;) {
+			existing = TABLES.putIfAbsent(key, reference);
+			if (existing == null) {
+				return compiled;
+			}
+			table = existing.get();
+			if (table != null) {
+				return (T) table;
+			}
+			if (TABLES.replace(key, existing, reference)) {
+				return compiled;
+			}
+		}
+	}
+
+	/**
+	 * Copies the values into a read-only buffer, off-heap if there are at least
+	 * {@link #OFF_HEAP_THRESHOLD} of them
+	 */
+	static IntBuffer store(int[] values) {
+		if (values.length < OFF_HEAP_THRESHOLD) {
+			return IntBuffer.wrap(values.clone()).asReadOnlyBuffer();
+		}
+		IntBuffer buffer = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		buffer.put(values);
+		buffer.flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	static int size() {
+		expungeReleased();
+		return TABLES.size();
+	}
+
+	private static void expungeReleased() {
+		for (Reference<?> released = RELEASED.poll(); released != null; released = RELEASED.poll()) {
+			TABLES.remove(((TableReference) released).key, released);
+		}
+	}
+
+	/**
+	 * The configuration a table is compiled from, compared by content and hashed once
+	 */
+	static final class Key {
+		private final String kind;
+
+		private final Object[] configuration;
+
+		private final int hash;
+
+		/**
+		 * @param kind what kind of table is compiled
+		 * @param configuration what the table is compiled from: strings, arrays, and the
+		 * like, compared by content
+		 */
+		Key(String kind, Object... configuration) {
+			this.kind = kind;
+			this.configuration = configuration;
+			this.hash = 31 * kind.hashCode() + Arrays.deepHashCode(configuration);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return this.hash == key.hash && this.kind.equals(key.kind)
+					&& Arrays.deepEquals(this.configuration, key.configuration);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+
+	private static final class TableReference extends WeakReference<Object> {
+		private final Key key;
+
+		TableReference(Key key, Object table) {
+			super(table, RELEASED);
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * A URL blocklist that remembers when it changes, so that what is compiled from it, like
+ * a {@link BlocklistMatcher}, is rebuilt only after it changes.
+ * </p>
+ * <p>
+ * Small blocklists, like the default ones, are searched token by token, since
+ * {@link String#contains(CharSequence)} is fastest for a handful of tokens. Blocklists of
+ * at least {@link #PREFILTER_THRESHOLD} tokens are searched with a
+ * {@link BlocklistMatcher}.
+ * </p>
+ */
+final class UrlBlocklist extends AbstractSet<String> {
+	static final int PREFILTER_THRESHOLD = 64;
+
+	private final HashSet<String> tokens;
+
+	private int version;
+
+	private volatile Compiled compiled;
+
+	UrlBlocklist(Collection<String> tokens) {
+		this.tokens = new HashSet<>(tokens);
+	}
+
+	/**
+	 * @param value the value to search, may be {@code null}
+	 * @return a token that the value contains, or {@code null} if it contains none
+	 */
+	String find(String value) {
+		if (value == null) {
+			return null;
+		}
+		if (this.tokens.size() < PREFILTER_THRESHOLD) {
+			for (String token : this.tokens) {
+				if (value.contains(token)) {
+					return token;
+				}
+			}
+			return null;
+		}
+		return compiled().matcher.find(value);
+	}
+
+	/**
+	 * @return the mask of forbidden characters for {@link UrlDecodingInspector}
+	 */
+	long[] forbiddenMask() {
+		return compiled().forbiddenMask;
+	}
+
+	private Compiled compiled() {
+		Compiled compiled = this.compiled;
+		if (compiled == null || compiled.version != this.version) {
+			compiled = new Compiled(this.version, this.tokens);
+			this.compiled = compiled;
+		}
+		return compiled;
+	}
+
+	@Override
+	public boolean add(String token) {
+		if (!this.tokens.add(token)) {
+			return false;
+		}
+		this.version++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object token) {
+		if (!this.tokens.remove(token)) {
+			return false;
+		}
+		this.version++;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		this.tokens.clear();
+		this.version++;
+	}
+
+	@Override
+	public boolean contains(Object token) {
+		return this.tokens.contains(token);
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		Iterator<String> iterator = this.tokens.iterator();
+		return new Iterator<String>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public String next() {
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				UrlBlocklist.this.version++;
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return this.tokens.size();
+	}
+
+	private static final class Compiled {
+		private final int version;
+
+		private final BlocklistMatcher matcher;
+
+		private final long[] forbiddenMask;
+
+		Compiled(int version, Collection<String> tokens) {
+			this.version = version;
+			this.matcher = tokens.size() < PREFILTER_THRESHOLD ? null : BlocklistMatcher.intern(tokens);
+			this.forbiddenMask = UrlDecodingInspector.forbiddenMask(tokens);
+		}
+	}
+}
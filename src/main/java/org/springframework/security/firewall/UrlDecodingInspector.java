@@ -0,0 +1,190 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * <p>
+ * Inspects a URL encoded value for forbidden characters hidden beneath one or more layers
+ * of percent-encoding, like {@code %252e} for a double-encoded period.
+ * </p>
+ * <p>
+ * Each decoding layer is a small state machine that consumes the output of the layer
+ * above it, so all layers are decoded together in one linear pass without materializing
+ * any decoded {@link String}. The states of all layers are packed into a single
+ * {@code long}. A forbidden character produced at any layer is a violation, as is any
+ * decoding beyond the configured depth.
+ * </p>
+ *
+ * @see Gh8644StrictHttpFirewall#setUrlDecodingInspectionDepth(int)
+ */
+final class UrlDecodingInspector {
+	static final int MAX_DEPTH = 4;
+
+	/**
+	 * Returned by {@link #inspect(String, int, long, long)} when there is no violation
+	 */
+	static final int NO_VIOLATION = 0;
+
+	private static final int LAYER_BITS = 10;
+
+	private static final long LAYER_MASK = (1L << LAYER_BITS) - 1;
+
+	private static final int PENDING_BITS = 8;
+
+	private static final int VIOLATION_LAYER_SHIFT = 60;
+
+	// a literal character that can not decode, standing in for characters above 0xff
+	private static final int NON_LATIN = 0xff;
+
+	private UrlDecodingInspector() {
+	}
+
+	/**
+	 * Builds the mask of characters that may not be produced by decoding from a url
+	 * blocklist. Single character entries and single percent-encoded entries, like
+	 * {@code ";"} and {@code "%2F"}, contribute their character; the percent itself never
+	 * does since it is what introduces the next layer.
+	 *
+	 * @param blocklist the url blocklist
+	 * @return the mask, with characters 0-63 in the first element and 64-127 in the second
+	 */
+	static long[] forbiddenMask(Iterable<String> blocklist) {
+		long[] mask = new long[2];
+		for (String forbidden : blocklist) {
+			int c = -1;
+			if (forbidden.length() == 1) {
+				c = forbidden.charAt(0);
+			} else if (forbidden.length() == 3 && forbidden.charAt(0) == '%') {
+				int hi = hex(forbidden.charAt(1));
+				int lo = hex(forbidden.charAt(2));
+				if (hi >= 0 && lo >= 0) {
+					c = hi << 4 | lo;
+				}
+			}
+			if (c >= 0 && c < 128 && c != '%') {
+				mask[c >>> 6] |= 1L << (c & 63);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Inspects the value
+	 *
+	 * @param value the URL encoded value, may be null
+	 * @param depth the number of decoding layers to allow, from 1 to {@link #MAX_DEPTH}
+	 * @param forbiddenLow the mask of forbidden characters 0-63
+	 * @param forbiddenHigh the mask of forbidden characters 64-127
+	 * @return {@link #NO_VIOLATION}, or the 1-based decoding layer at which a forbidden
+	 * character was produced, or {@code depth + 1} if the value is encoded more deeply than
+	 * allowed
+	 */
+	static int inspect(String value, int depth, long forbiddenLow, long forbiddenHigh) {
+		if (value == null || value.indexOf('%') == -1) {
+			return NO_VIOLATION;
+		}
+		long states = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			states = feed(0, c > NON_LATIN ? NON_LATIN : c, states, depth, forbiddenLow, forbiddenHigh);
+			if (states < 0) {
+				return (int) ((states >>> VIOLATION_LAYER_SHIFT) & 0x7) + 1;
+			}
+		}
+		// characters still pending at the end of the value start with a percent, which is
+		// not a hex digit, so they can not complete an escape in a later layer
+		return NO_VIOLATION;
+	}
+
+	private static long feed(int layer, int c, long states, int depth, long forbiddenLow, long forbiddenHigh) {
+		if (layer > depth) {
+			return states;
+		}
+		int shift = layer * LAYER_BITS;
+		long state = (states >>> shift) & LAYER_MASK;
+		int phase = (int) (state >>> PENDING_BITS);
+		int pending = (int) (state & 0xff);
+		if (phase == 0) {
+			if (c == '%') {
+				return withState(states, shift, 1, 0);
+			}
+			return feed(layer + 1, c, states, depth, forbiddenLow, forbiddenHigh);
+		}
+		if (phase == 1) {
+			if (hex(c) >= 0) {
+				return withState(states, shift, 2, c);
+			}
+			states = feed(layer + 1, '%', withState(states, shift, 0, 0), depth, forbiddenLow, forbiddenHigh);
+			if (states < 0) {
+				return states;
+			}
+			return feed(layer, c, states, depth, forbiddenLow, forbiddenHigh);
+		}
+		int lo = hex(c);
+		states = withState(states, shift, 0, 0);
+		if (lo >= 0) {
+			int decoded = hex(pending) << 4 | lo;
+			if (layer == depth || isForbidden(decoded, forbiddenLow, forbiddenHigh)) {
+				return violation(layer);
+			}
+			return feed(layer + 1, decoded, states, depth, forbiddenLow, forbiddenHigh);
+		}
+		states = feed(layer + 1, '%', states, depth, forbiddenLow, forbiddenHigh);
+		if (states < 0) {
+			return states;
+		}
+		states = feed(layer + 1, pending, states, depth, forbiddenLow, forbiddenHigh);
+		if (states < 0) {
+			return states;
+		}
+		return feed(layer, c, states, depth, forbiddenLow, forbiddenHigh);
+	}
+
+	private static long withState(long states, int shift, int phase, int pending) {
+		long state = ((long) phase << PENDING_BITS) | pending;
+		return (states & ~(LAYER_MASK << shift)) | (state << shift);
+	}
+
+	private static long violation(int layer) {
+		return Long.MIN_VALUE | ((long) layer << VIOLATION_LAYER_SHIFT);
+	}
+
+	private static boolean isForbidden(int c, long forbiddenLow, long forbiddenHigh) {
+		if (c < 64) {
+			return (forbiddenLow & (1L << c)) != 0;
+		}
+		if (c < 128) {
+			return (forbiddenHigh & (1L << (c - 64))) != 0;
+		}
+		return false;
+	}
+
+	private static int hex(int c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+}
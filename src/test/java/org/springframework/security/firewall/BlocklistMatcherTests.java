@@ -0,0 +1,159 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link BlocklistMatcher}
+ */
+public class BlocklistMatcherTests {
+	private static final String ALPHABET = "ab%2e./";
+
+	@Test
+	public void findWhenRandomTokensThenAgreesWithLinearScan() {
+		for (long seed = 0; seed < 200; seed++) {
+			Random random = new Random(seed);
+			Set<String> tokens = randomTokens(random, 1 + random.nextInt(100), 1 + random.nextInt(8));
+			BlocklistMatcher matcher = new BlocklistMatcher(tokens);
+			for (int i = 0; i < 200; i++) {
+				assertAgreesWithLinearScan(seed, tokens, matcher, randomValue(random, random.nextInt(24)));
+			}
+		}
+	}
+
+	@Test
+	public void findWhenValueShorterThanEveryTokenThenNull() {
+		BlocklistMatcher matcher = new BlocklistMatcher(Arrays.asList("%2e%2e", "%2f%2f%2f"));
+		assertNull(matcher.find(""));
+		assertNull(matcher.find("%2e"));
+		assertNull(matcher.find("%2e%2"));
+		assertEquals("%2e%2e", matcher.find("%2e%2e"));
+	}
+
+	@Test
+	public void findWhenTokenAsLongAsValueThenWholeValueCompared() {
+		BlocklistMatcher matcher = new BlocklistMatcher(Arrays.asList(";", "%2e%2e"));
+		assertEquals(";", matcher.find(";"));
+		assertEquals("%2e%2e", matcher.find("%2e%2e"));
+		assertNull(matcher.find("%2e%2E"));
+	}
+
+	@Test
+	public void findWhenEmptyTokenThenEveryValueMatches() {
+		BlocklistMatcher matcher = new BlocklistMatcher(Arrays.asList("", "%2e"));
+		assertEquals("", matcher.find(""));
+		assertEquals("", matcher.find("/a"));
+	}
+
+	@Test
+	public void findWhenTokensShareTableSlotThenBothFound() {
+		// in a table of two tokens, both of these hash to the same slot
+		BlocklistMatcher matcher = new BlocklistMatcher(Arrays.asList("%2e", "%2E"));
+		assertEquals("%2e", matcher.find("/a%2e"));
+		assertEquals("%2E", matcher.find("/a%2E"));
+		assertNull(matcher.find("/a%2f"));
+		matcher = new BlocklistMatcher(Arrays.asList("%2E", "%2e"));
+		assertEquals("%2e", matcher.find("/a%2e"));
+		assertEquals("%2E", matcher.find("/a%2E"));
+	}
+
+	@Test
+	public void findWhenManyTokensOfOneLengthThenAgreesWithLinearScan() {
+		Random random = new Random(42);
+		Set<String> tokens = new HashSet<>();
+		for (int i = 0; i < 200; i++) {
+			tokens.add(randomValue(random, 3));
+		}
+		BlocklistMatcher matcher = new BlocklistMatcher(tokens);
+		for (String token : tokens) {
+			assertEquals(token, matcher.find(token));
+		}
+		for (int i = 0; i < 2000; i++) {
+			assertAgreesWithLinearScan(42, tokens, matcher, randomValue(random, random.nextInt(12)));
+		}
+	}
+
+	@Test
+	public void internWhenSameTokensThenSameMatcher() {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			tokens.add("/interned-" + i);
+		}
+		BlocklistMatcher matcher = BlocklistMatcher.intern(tokens);
+		List<String> reversed = new ArrayList<>(tokens);
+		Collections.reverse(reversed);
+		assertSame(matcher, BlocklistMatcher.intern(new HashSet<>(reversed)));
+		assertSame(matcher, BlocklistMatcher.intern(new TreeSet<>(tokens)));
+		tokens.set(0, "/interned-other");
+		BlocklistMatcher other = BlocklistMatcher.intern(tokens);
+		assertNotSame(matcher, other);
+		assertEquals("/interned-other", other.find("/interned-other"));
+		assertNull(other.find("/interned-0/"));
+	}
+
+	private static void assertAgreesWithLinearScan(long seed, Collection<String> tokens, BlocklistMatcher matcher,
+			String value) {
+		String found = matcher.find(value);
+		String expected = null;
+		for (String token : tokens) {
+			if (value.contains(token)) {
+				expected = token;
+				break;
+			}
+		}
+		String message = "seed " + seed + ", value '" + value + "', found '" + found + "'";
+		if (expected == null) {
+			assertNull(message, found);
+		} else {
+			assertTrue(message, found != null && tokens.contains(found) && value.contains(found));
+		}
+	}
+
+	private static Set<String> randomTokens(Random random, int count, int maxLength) {
+		Set<String> tokens = new HashSet<>();
+		for (int i = 0; i < count; i++) {
+			tokens.add(randomValue(random, 1 + random.nextInt(maxLength)));
+		}
+		return tokens;
+	}
+
+	private static String randomValue(Random random, int length) {
+		StringBuilder value = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return value.toString();
+	}
+}
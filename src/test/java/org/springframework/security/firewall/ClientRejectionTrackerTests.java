@@ -0,0 +1,95 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClientRejectionTracker}
+ */
+public class ClientRejectionTrackerTests {
+
+	@Test
+	public void countWhenRejectionsRecordedThenCounted() {
+		ClientRejectionTracker tracker = new ClientRejectionTracker(3, 1, TimeUnit.HOURS);
+		tracker.recordRejection("10.0.0.1");
+		tracker.recordRejection("10.0.0.1");
+		assertEquals(2, tracker.count("10.0.0.1"));
+		assertEquals(0, tracker.count("10.0.0.2"));
+	}
+
+	@Test
+	public void countWhenKeysHaveSameStringHashCodeThenCountedSeparately() {
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		ClientRejectionTracker tracker = new ClientRejectionTracker(3, 1, TimeUnit.HOURS);
+		for (int i = 0; i < 10; i++) {
+			tracker.recordRejection("Aa");
+		}
+		assertEquals(10, tracker.count("Aa"));
+		assertEquals(0, tracker.count("BB"));
+	}
+
+	@Test
+	public void indexWhenKeysHaveSameStringHashCodeThenRowsDisagree() {
+		ClientRejectionTracker tracker = new ClientRejectionTracker(3, 1, TimeUnit.HOURS);
+		int bothShared = 0;
+		// "Aa" and "BB" have the same hashCode, and so does any concatenation of them
+		for (int i = 0; i < 256; i++) {
+			String first = pairs(i, "Aa", "BB");
+			String second = pairs(i, "BB", "Aa");
+			if (tracker.firstIndex(first) == tracker.firstIndex(second)
+					&& tracker.secondIndex(first) == tracker.secondIndex(second)) {
+				bothShared++;
+			}
+		}
+		assertTrue("shared both cells " + bothShared + " times", bothShared <= 1);
+	}
+
+	@Test
+	public void indexWhenDifferentTrackersThenSeededDifferently() {
+		ClientRejectionTracker first = new ClientRejectionTracker(3, 1, TimeUnit.HOURS);
+		ClientRejectionTracker second = new ClientRejectionTracker(3, 1, TimeUnit.HOURS);
+		boolean differs = false;
+		for (int i = 0; i < 16 && !differs; i++) {
+			String key = "10.0.0." + i;
+			differs = first.firstIndex(key) != second.firstIndex(key);
+		}
+		assertTrue(differs);
+	}
+
+	@Test
+	public void countWhenCapacityOfOneThenAllKeysShareCells() {
+		ClientRejectionTracker tracker = new ClientRejectionTracker(3, 1, TimeUnit.HOURS, 1);
+		tracker.recordRejection("Aa");
+		tracker.recordRejection("BB");
+		assertEquals(2, tracker.count("Aa"));
+		assertEquals(2, tracker.count("BB"));
+	}
+
+	private static String pairs(int bits, String one, String zero) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			key.append((bits >>> i & 1) == 1 ? one : zero);
+		}
+		return key.toString();
+	}
+}
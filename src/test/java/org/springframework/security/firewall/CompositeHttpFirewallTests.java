@@ -0,0 +1,66 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.firewall.RequestRejectedException;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Tests for {@link CompositeHttpFirewall}
+ */
+public class CompositeHttpFirewallTests {
+
+	// a percent encoded twice more, so three layers of encoding
+	private static final String TRIPLE_ENCODED = "/a%252525b";
+
+	@Test
+	public void getFirewalledRequestWhenLayersInspectToDifferentDepthsThenShallowestApplies() {
+		assertNotNull(depth(3).getFirewalledRequest(request(TRIPLE_ENCODED)));
+		assertThrows(RequestRejectedException.class, () -> depth(1).getFirewalledRequest(request(TRIPLE_ENCODED)));
+		CompositeHttpFirewall firewall = new CompositeHttpFirewall(depth(3), depth(1));
+		assertThrows(RequestRejectedException.class, () -> firewall.getFirewalledRequest(request(TRIPLE_ENCODED)));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenLayerDoesNotInspectThenEncodedPercentRejected() {
+		CompositeHttpFirewall firewall = new CompositeHttpFirewall(depth(2), new Gh8644StrictHttpFirewall());
+		assertThrows(RequestRejectedException.class, () -> firewall.getFirewalledRequest(request("/a%2525b")));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenEveryLayerInspectsThenEncodedPercentAllowed() {
+		CompositeHttpFirewall firewall = new CompositeHttpFirewall(depth(2), depth(3));
+		assertNotNull(firewall.getFirewalledRequest(request("/a%2525b")));
+	}
+
+	private static Gh8644StrictHttpFirewall depth(int depth) {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setUrlDecodingInspectionDepth(depth);
+		return firewall;
+	}
+
+	private static MockHttpServletRequest request(String requestUri) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", requestUri);
+		request.setServletPath(requestUri);
+		return request;
+	}
+}
@@ -0,0 +1,110 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FileChannelRejectionSink}
+ */
+public class FileChannelRejectionSinkTests {
+
+	@Test
+	public void writeWhenSampleThenTabSeparatedLine() throws IOException {
+		List<String> lines = record(recorder -> {
+			recorder.record(RejectionRule.HEADER_NAME, "X-Bad", "/a/b", "example.org");
+			recorder.record(RejectionRule.HTTP_METHOD, null, "/c", null);
+		});
+		assertEquals(2, lines.size());
+		String[] fields = lines.get(0).split("\t", -1);
+		assertEquals(5, fields.length);
+		assertTrue(Long.parseLong(fields[0]) > 0);
+		assertEquals(Arrays.asList("HEADER_NAME", "X-Bad", "example.org", "/a/b"),
+				Arrays.asList(fields).subList(1, 5));
+		assertEquals(Arrays.asList("HTTP_METHOD", "", "", "/c"),
+				Arrays.asList(lines.get(1).split("\t", -1)).subList(1, 5));
+	}
+
+	@Test
+	public void writeWhenControlOrNonAsciiCharactersThenReplaced() throws IOException {
+		List<String> lines = record(recorder -> recorder.record(RejectionRule.HEADER_VALUE,
+				"a\nb\tc\u00e9", "/x\r\ny", "h\u0000st"));
+		assertEquals(1, lines.size());
+		assertEquals(Arrays.asList("HEADER_VALUE", "a?b?c?", "h?st", "/x??y"),
+				Arrays.asList(lines.get(0).split("\t", -1)).subList(1, 5));
+	}
+
+	@Test
+	public void writeWhenLargerThanBufferThenEveryLineWritten() throws IOException {
+		char[] uri = new char[256];
+		Arrays.fill(uri, 'u');
+		uri[0] = '/';
+		List<String> lines = record(recorder -> {
+			for (int i = 0; i < 1000; i++) {
+				recorder.record(RejectionRule.DECODED_URL_BLOCKLIST, "token" + i, new String(uri), "localhost");
+			}
+		});
+		assertEquals(1000, lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			assertEquals("token" + i, lines.get(i).split("\t", -1)[2]);
+			assertTrue(lines.get(i).endsWith(new String(uri)));
+		}
+	}
+
+	@Test
+	public void constructorWhenFileExistsThenAppends() throws IOException {
+		Path file = Files.createTempFile("rejections", ".tsv");
+		try {
+			Files.write(file, "existing\n".getBytes(StandardCharsets.US_ASCII));
+			RejectionRecorder recorder = new RejectionRecorder(new FileChannelRejectionSink(file));
+			recorder.record(RejectionRule.HOSTNAME, null, "/", "evil.org");
+			recorder.close();
+			List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+			assertEquals(2, lines.size());
+			assertEquals("existing", lines.get(0));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static List<String> record(Recording recording) throws IOException {
+		Path file = Files.createTempFile("rejections", ".tsv");
+		try {
+			RejectionRecorder recorder = new RejectionRecorder(new FileChannelRejectionSink(file), 1024);
+			recorder.setMaxSamplesPerSecond(10000);
+			recording.record(recorder);
+			recorder.close();
+			return Files.readAllLines(file, StandardCharsets.US_ASCII);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private interface Recording {
+		void record(RejectionRecorder recorder);
+	}
+}
@@ -0,0 +1,144 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.firewall.RequestRejectedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FirewallEvaluationEvent}
+ */
+public class FirewallEvaluationEventTests {
+	private static final Duration SLOW = Duration.ofMillis(20);
+
+	@Test
+	public void getFirewalledRequestWhenSlowThenEventRecordsStagesVerdictAndRule() throws Exception {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setNormalizePaths(true);
+		firewall.setAllowedHostnames(hostname -> {
+			sleep();
+			return !hostname.startsWith("rejected.");
+		});
+		Map<String, RecordedEvent> events = record(() -> {
+			firewall.getFirewalledRequest(request("accepted.example.org", "/a/b"));
+			firewall.getFirewalledRequest(request("normalized.example.org", "/a/./b"));
+			assertThrows(RequestRejectedException.class,
+					() -> firewall.getFirewalledRequest(request("rejected.example.org", "/a/b")));
+		});
+		assertEquals(3, events.size());
+
+		RecordedEvent accepted = events.get(FirewallEvaluationEvent.ACCEPTED);
+		assertNull(accepted.getString("rule"));
+		assertSlowHostnameStage(accepted);
+		assertEquals(1, accepted.getInt("headerCount"));
+		assertEquals(0, accepted.getInt("parameterCount"));
+		assertTrue(accepted.getLong("bytesScanned") >= "/a/b".length());
+
+		RecordedEvent normalized = events.get(FirewallEvaluationEvent.NORMALIZED);
+		assertNull(normalized.getString("rule"));
+		assertSlowHostnameStage(normalized);
+
+		RecordedEvent rejected = events.get(FirewallEvaluationEvent.REJECTED);
+		assertEquals(RejectionRule.HOSTNAME.name(), rejected.getString("rule"));
+		assertSlowHostnameStage(rejected);
+		assertEquals(Duration.ZERO, rejected.getDuration("headerDuration"));
+		assertEquals(Duration.ZERO, rejected.getDuration("bodyDuration"));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenFasterThanThresholdThenNoEvent() throws Exception {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		Map<String, RecordedEvent> events = record(() -> firewall.getFirewalledRequest(request("example.org", "/a")),
+				Duration.ofHours(1));
+		assertTrue(events.isEmpty());
+	}
+
+	private static void assertSlowHostnameStage(RecordedEvent event) {
+		assertNotNull(event.getDuration("methodDuration"));
+		assertNotNull(event.getDuration("urlDuration"));
+		assertTrue(event.getDuration("hostnameDuration").compareTo(SLOW) >= 0);
+		assertTrue(event.getDuration().compareTo(event.getDuration("hostnameDuration")) >= 0);
+	}
+
+	private static Map<String, RecordedEvent> record(Runnable evaluations) throws IOException {
+		return record(evaluations, null);
+	}
+
+	/**
+	 * Runs the evaluations in a recording and returns the firewall events by verdict
+	 */
+	private static Map<String, RecordedEvent> record(Runnable evaluations, Duration threshold) throws IOException {
+		Path file = Files.createTempFile("firewall", ".jfr");
+		try (Recording recording = new Recording()) {
+			if (threshold == null) {
+				recording.enable(FirewallEvaluationEvent.NAME);
+			} else {
+				recording.enable(FirewallEvaluationEvent.NAME).withThreshold(threshold);
+			}
+			recording.start();
+			evaluations.run();
+			recording.stop();
+			recording.dump(file);
+			List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+			Map<String, RecordedEvent> events = new HashMap<>();
+			for (RecordedEvent event : recorded) {
+				if (event.getEventType().getName().equals(FirewallEvaluationEvent.NAME)) {
+					events.put(event.getString("verdict"), event);
+				}
+			}
+			return events;
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static MockHttpServletRequest request(String serverName, String requestUri) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", requestUri);
+		request.setServletPath(requestUri);
+		request.setServerName(serverName);
+		request.addHeader("Accept", "*/*");
+		return request;
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(SLOW.toMillis());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
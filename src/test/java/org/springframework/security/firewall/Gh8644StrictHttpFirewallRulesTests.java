@@ -0,0 +1,224 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockPart;
+import org.springframework.security.web.firewall.RequestRejectedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for how the rules of {@link Gh8644StrictHttpFirewall} are configured and applied
+ */
+public class Gh8644StrictHttpFirewallRulesTests {
+
+	@Test
+	public void setUrlDecodingInspectionDepthWhenResetThenRejectsEncodedPercent() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setUrlDecodingInspectionDepth(2);
+		assertFalse(firewall.getEncodedUrlBlocklist().contains("%25"));
+		firewall.setUrlDecodingInspectionDepth(0);
+		assertTrue(firewall.getEncodedUrlBlocklist().contains("%25"));
+		assertTrue(firewall.getDecodedUrlBlocklist().contains("%"));
+	}
+
+	@Test
+	public void setUrlDecodingInspectionDepthWhenResetThenKeepsAllowUrlEncodedPercent() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setAllowUrlEncodedPercent(true);
+		firewall.setUrlDecodingInspectionDepth(2);
+		firewall.setUrlDecodingInspectionDepth(0);
+		assertFalse(firewall.getEncodedUrlBlocklist().contains("%25"));
+		assertFalse(firewall.getDecodedUrlBlocklist().contains("%"));
+	}
+
+	@Test
+	public void setAllowUrlEncodedPercentWhenInspectingThenPercentStillAllowed() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setUrlDecodingInspectionDepth(1);
+		firewall.setAllowUrlEncodedPercent(false);
+		assertFalse(firewall.getEncodedUrlBlocklist().contains("%25"));
+		assertFalse(firewall.getDecodedUrlBlocklist().contains("%"));
+		assertAllowsEncodedPercent(firewall);
+		firewall.setUrlDecodingInspectionDepth(0);
+		assertTrue(firewall.getEncodedUrlBlocklist().contains("%25"));
+	}
+
+	@Test
+	public void setUrlDecodingInspectionDepthWhenAfterDisallowingPercentThenPercentAllowed() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setAllowUrlEncodedPercent(false);
+		firewall.setUrlDecodingInspectionDepth(1);
+		assertAllowsEncodedPercent(firewall);
+	}
+
+	@Test
+	public void normalizeWhenServletPathAndPathInfoThenNormalizedAsOnePath() {
+		assertPaths(normalize("/ctx/a/./b/../c", "/ctx", "/a", "/./b/../c"), "/ctx/a/c", "/a", "/c");
+		assertPaths(normalize("/ctx/a/b/../c", "/ctx", "/a/b/../c", null), "/ctx/a/c", "/a/c", null);
+		assertPaths(normalize("/a/./b", "", "", "/a/./b"), "/a/b", "", "/a/b");
+	}
+
+	@Test
+	public void normalizeWhenServletPathStepsOutOfItselfThenNull() {
+		assertNull(normalize("/ctx/secure/../x", "/ctx", "/secure/..", "/x"));
+	}
+
+	@Test
+	public void normalizeWhenPathInfoStepsIntoServletPathThenNull() {
+		assertNull(normalize("/ctx/a/../b", "/ctx", "/a", "/../b"));
+		assertNull(normalize("/ctx/a/../../x", "/ctx", "/a", "/../../x"));
+	}
+
+	@Test
+	public void normalizeWhenUriLeavesContextPathThenNull() {
+		assertNull(normalize("/ctx/../ctxevil/x", "/ctx", "/x", null));
+		assertNull(normalize("/ctx/../x", "/ctx", "/../x", null));
+		assertPaths(normalize("/ctx/./x", "/ctx", "/./x", null), "/ctx/x", "/x", null);
+	}
+
+	@Test
+	public void normalizeWhenUriDisagreesWithPathsThenNull() {
+		assertNull(normalize("/ctx/a/./b", "/ctx", "/other", null));
+		assertPaths(normalize("/ctx/a%20b/./c", "/ctx", "/a b/./c", null), "/ctx/a%20b/c", "/a b/c", null);
+	}
+
+	@Test
+	public void normalizeWhenContextPathNotNormalizedThenNull() {
+		assertNull(normalize("/ctx/../x", "/ctx/..", "/x", null));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenNormalizePathsThenServesNormalizedPaths() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setNormalizePaths(true);
+		HttpServletRequest request = firewall.getFirewalledRequest(request("/ctx/a/./b", "/ctx", "/a", "/./b"));
+		assertEquals("/ctx/a/b", request.getRequestURI());
+		assertEquals("/a", request.getServletPath());
+		assertEquals("/b", request.getPathInfo());
+	}
+
+	@Test
+	public void getFirewalledRequestWhenNormalizePathsThenRequestUrlAgreesWithRequestUri() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setNormalizePaths(true);
+		MockHttpServletRequest raw = request("/ctx/a/./b/../c", "/ctx", "/a", "/./b/../c");
+		raw.setServerName("example.org");
+		HttpServletRequest request = firewall.getFirewalledRequest(raw);
+		assertEquals("/ctx/a/c", request.getRequestURI());
+		assertEquals("http://example.org/ctx/a/c", request.getRequestURL().toString());
+		MockHttpServletRequest normal = request("/ctx/a", "/ctx", "/a", null);
+		normal.setServerName("example.org");
+		assertEquals("http://example.org/ctx/a", firewall.getFirewalledRequest(normal).getRequestURL().toString());
+	}
+
+	@Test
+	public void getFirewalledRequestWhenNormalizedPathsDisagreeThenRejected() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setNormalizePaths(true);
+		assertThrows(RequestRejectedException.class,
+				() -> firewall.getFirewalledRequest(request("/ctx/x", "/ctx", "/secure/..", "/x")));
+		assertThrows(RequestRejectedException.class,
+				() -> firewall.getFirewalledRequest(request("/ctx/../ctxevil/x", "/ctx", "/x", null)));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenJsonBodyInspectedThenReplayed() throws IOException {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setRequestBodyInspector(new RequestBodyInspector());
+		MockHttpServletRequest request = request("/a", "", "/a", null);
+		request.setMethod("POST");
+		request.setContentType("application/json");
+		request.setContent("{\"a\": 1}".getBytes(StandardCharsets.UTF_8));
+		assertEquals("{\"a\": 1}", firewall.getFirewalledRequest(request).getReader().readLine());
+	}
+
+	@Test
+	public void getFirewalledRequestWhenJsonHasNoCharsetThenReplayedAsUtf8() throws IOException {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setRequestBodyInspector(new RequestBodyInspector());
+		String json = "{\"caf\u00e9\": \"\u4e2d\"}";
+		MockHttpServletRequest request = request("/a", "", "/a", null);
+		request.setMethod("POST");
+		request.setContentType("application/json");
+		request.setContent(json.getBytes(StandardCharsets.UTF_8));
+		assertNull(request.getCharacterEncoding());
+		assertEquals(json, firewall.getFirewalledRequest(request).getReader().readLine());
+	}
+
+	@Test
+	public void getFirewalledRequestWhenJsonDeclaresCharsetThenReplayedWithIt() throws IOException {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setRequestBodyInspector(new RequestBodyInspector());
+		String json = "{\"caf\u00e9\": 1}";
+		MockHttpServletRequest request = request("/a", "", "/a", null);
+		request.setMethod("POST");
+		request.setContentType("application/json");
+		request.setCharacterEncoding("ISO-8859-1");
+		request.setContent(json.getBytes(StandardCharsets.ISO_8859_1));
+		assertEquals(json, firewall.getFirewalledRequest(request).getReader().readLine());
+	}
+
+	@Test
+	public void getFirewalledRequestWhenContainerParsedPartsThenPartsInspected() {
+		RequestBodyInspector inspector = new RequestBodyInspector();
+		inspector.setAllowedFilenames(HeaderValueRule.of(CharacterClass.range('a', 'z').or(CharacterClass.of("."))));
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setRequestBodyInspector(inspector);
+		MockHttpServletRequest request = request("/a", "", "/a", null);
+		request.setMethod("POST");
+		request.setContentType("multipart/form-data; boundary=xyz");
+		request.addPart(new MockPart("file", "../a.txt", new byte[0]));
+		assertThrows(RequestRejectedException.class, () -> firewall.getFirewalledRequest(request));
+	}
+
+	private static void assertAllowsEncodedPercent(Gh8644StrictHttpFirewall firewall) {
+		assertEquals("/a%25b", firewall.getFirewalledRequest(request("/a%25b", "", "/a%b", null)).getRequestURI());
+		assertThrows(RequestRejectedException.class,
+				() -> firewall.getFirewalledRequest(request("/a%252e", "", "/a%2e", null)));
+	}
+
+		private static String[] normalize(String requestUri, String contextPath, String servletPath, String pathInfo) {
+		return Gh8644StrictHttpFirewall.normalize(requestUri, contextPath, servletPath, pathInfo, new StringBuilder());
+	}
+
+	private static void assertPaths(String[] paths, String requestUri, String servletPath, String pathInfo) {
+		assertEquals(requestUri, paths[0]);
+		assertEquals(servletPath, paths[1]);
+		assertEquals(pathInfo, paths[2]);
+	}
+
+	private static MockHttpServletRequest request(String requestUri, String contextPath, String servletPath,
+			String pathInfo) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", requestUri);
+		request.setContextPath(contextPath);
+		request.setServletPath(servletPath);
+		request.setPathInfo(pathInfo);
+		return request;
+	}
+}
@@ -0,0 +1,155 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link Gh8644StrictHttpFirewall#validate(RequestBatch)} reaches the same
+ * verdict, and attributes it to the same rule, as
+ * {@link Gh8644StrictHttpFirewall#getFirewalledRequest}
+ */
+public class Gh8644StrictHttpFirewallValidateTests {
+
+	@Test
+	public void validateWhenMixedBatchThenSameRulesAsGetFirewalledRequest() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setAllowedHostnames("example.org"::equals);
+		firewall.setAllowedHeaderNames(without("X-Bad"));
+		firewall.setAllowedParameterNames(without("bad"));
+		List<MockHttpServletRequest> rows = new ArrayList<>();
+		rows.add(request("GET", "/a", "", "/a", null, "example.org"));
+		rows.add(request(null, "/a", "", "/a", null, "example.org"));
+		rows.add(request("TRACE", "/a", "", "/a", null, "example.org"));
+		rows.add(request("GET", "/a;jsessionid=1", "", "/a", null, "example.org"));
+		rows.add(request("GET", "/a%2e", "", "/a.", null, "example.org"));
+		rows.add(request("GET", "/a/x", "", "/a;x", null, "example.org"));
+		rows.add(request("GET", "/a", "", "/a", null, "evil.org"));
+		rows.add(request("GET", "/a", "", "/a", null, null));
+		rows.add(request("GET", "/a/../b", "", "/a/../b", null, "example.org"));
+		rows.add(request("GET", "/a\u00e9", "", "/a\u00e9", null, "example.org"));
+		rows.add(request("GET", "/a", null, null, null, "example.org"));
+		rows.add(request("GET", "/ctx/a/b", "/ctx", "/a", "/b", "example.org"));
+		rows.add(request("GET", "/ctx/a/./b", "/ctx", "/a", "/./b", "example.org"));
+		MockHttpServletRequest header = request("GET", "/a", "", "/a", null, "example.org");
+		header.addHeader("X-Bad", "1");
+		rows.add(header);
+		MockHttpServletRequest parameter = request("GET", "/a", "", "/a", null, "example.org");
+		parameter.setParameter("bad", "1");
+		rows.add(parameter);
+		MockHttpServletRequest both = request("TRACE", "/a", "", "/a", null, "example.org");
+		both.setParameter("bad", "1");
+		rows.add(both);
+
+		BatchVerdict verdict = assertSameVerdicts(firewall, rows);
+		assertEquals(RejectionRule.HTTP_METHOD, verdict.getRule(1));
+		assertEquals(RejectionRule.DECODED_URL_BLOCKLIST, verdict.getRule(5));
+		assertEquals(RejectionRule.NON_PRINTABLE_CHARACTER, verdict.getRule(9));
+		assertEquals(RejectionRule.PARAMETER_NAME, verdict.getRule(14));
+		assertFalse(verdict.isRejected(7));
+		assertFalse(verdict.isRejected(10));
+	}
+
+	@Test
+	public void validateWhenInspectingAndNormalizingThenSameRulesAsGetFirewalledRequest() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setUrlDecodingInspectionDepth(1);
+		firewall.setNormalizePaths(true);
+		List<MockHttpServletRequest> rows = new ArrayList<>();
+		rows.add(request("GET", "/100%25", "", "/100%", null, "localhost"));
+		rows.add(request("GET", "/a%252e", "", "/a%2e", null, "localhost"));
+		rows.add(request("GET", "/a%252520b", "", "/a%2520b", null, "localhost"));
+		rows.add(request("GET", "/ctx/a/./b", "/ctx", "/a/./b", null, "localhost"));
+		rows.add(request("GET", "/ctx/../ctxevil/b", "/ctx", "/b", null, "localhost"));
+		rows.add(request("GET", "/ctx/x", "/ctx", "/secure/..", "/x", "localhost"));
+
+		BatchVerdict verdict = assertSameVerdicts(firewall, rows);
+		assertFalse(verdict.isRejected(0));
+		assertEquals(RejectionRule.URL_DECODING_INSPECTION, verdict.getRule(1));
+		assertFalse(verdict.isRejected(3));
+		assertEquals(RejectionRule.NOT_NORMALIZED, verdict.getRule(5));
+	}
+
+	/**
+	 * Validates the rows as one batch, adding those without headers or parameters by their
+	 * strings alone, and compares each verdict with that of the single request path
+	 */
+	private static BatchVerdict assertSameVerdicts(Gh8644StrictHttpFirewall firewall,
+			List<MockHttpServletRequest> rows) {
+		RequestBatch batch = new RequestBatch(2);
+		boolean stringsOnly = false;
+		for (MockHttpServletRequest row : rows) {
+			stringsOnly = !stringsOnly;
+			if (stringsOnly && !row.getHeaderNames().hasMoreElements() && !row.getParameterNames().hasMoreElements()) {
+				batch.add(row.getMethod(), row.getRequestURI(), row.getContextPath(), row.getServletPath(),
+						row.getPathInfo(), row.getServerName());
+			} else {
+				batch.add(row);
+			}
+		}
+		BatchVerdict verdict = firewall.validate(batch);
+		assertEquals(rows.size(), verdict.size());
+		byte[] codes = verdict.getReasonCodes();
+		int rejected = 0;
+		for (int i = 0; i < rows.size(); i++) {
+			RejectionRule rule = null;
+			try {
+				firewall.getFirewalledRequest(rows.get(i));
+			} catch (Gh8644StrictHttpFirewall.RuleRejectedException ex) {
+				rule = ex.getRule();
+				rejected++;
+			}
+			assertEquals("row " + i, rule, verdict.getRule(i));
+			assertTrue("row " + i, codes[i] == (rule == null ? 0 : rule.code()));
+			assertEquals("row " + i, rule != null, verdict.isRejected(i));
+		}
+		assertEquals(rejected, verdict.getRejectedCount());
+		assertTrue(rejected > 0);
+		return verdict;
+	}
+
+	private static Predicate<Iterable<String>> without(String forbidden) {
+		return names -> {
+			for (String name : names) {
+				if (name.equalsIgnoreCase(forbidden)) {
+					return false;
+				}
+			}
+			return true;
+		};
+	}
+
+	private static MockHttpServletRequest request(String method, String requestUri, String contextPath,
+			String servletPath, String pathInfo, String serverName) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, requestUri);
+		request.setContextPath(contextPath);
+		request.setServletPath(servletPath);
+		request.setPathInfo(pathInfo);
+		request.setServerName(serverName);
+		return request;
+	}
+}
@@ -0,0 +1,214 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.junit.Test;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.firewall.RequestRejectedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HeaderValueRules} and how
+ * {@link Gh8644StrictHttpFirewall#setAllowedHeaderValues(String, Predicate)} applies them
+ */
+public class HeaderValueRulesTests {
+
+	@Test
+	public void getWhenDifferentCaseThenSameRule() {
+		HeaderValueRules rules = new HeaderValueRules();
+		Predicate<String> rule = "a"::equals;
+		rules.put("X-Custom", rule);
+		assertSame(rule, rules.get("X-Custom"));
+		assertSame(rule, rules.get("x-custom"));
+		assertSame(rule, rules.get("X-CUSTOM"));
+		assertNull(rules.get("X-Custo"));
+		assertNull(rules.get("X-Customs"));
+	}
+
+	@Test
+	public void putWhenSameNameInOtherCaseThenReplacesRule() {
+		HeaderValueRules rules = new HeaderValueRules();
+		Predicate<String> first = "a"::equals;
+		Predicate<String> second = "b"::equals;
+		rules.put("X-Custom", first);
+		rules.put("Accept", HeaderValueRule.skip());
+		rules.put("x-CUSTOM", second);
+		assertEquals(2, rules.names().length);
+		assertSame(second, rules.get("X-Custom"));
+		assertSame(HeaderValueRule.skip(), rules.get("accept"));
+	}
+
+	@Test
+	public void getWhenManyRulesThenEachFound() {
+		HeaderValueRules rules = new HeaderValueRules();
+		List<Predicate<String>> added = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			String value = String.valueOf(i);
+			Predicate<String> rule = value::equals;
+			rules.put("X-Header-" + i, rule);
+			added.add(rule);
+		}
+		assertFalse(rules.isEmpty());
+		assertEquals(100, rules.names().length);
+		for (int i = 0; i < 100; i++) {
+			assertSame(added.get(i), rules.get("x-header-" + i));
+		}
+		assertNull(rules.get("X-Header-100"));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenHeaderHasRuleThenEveryValueTested() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setAllowedHeaderValues("x-custom", HeaderValueRule.of(CharacterClass.range('a', 'z'), 3));
+		MockHttpServletRequest request = request();
+		request.addHeader("X-Custom", "abc");
+		request.addHeader("X-Custom", "de");
+		firewall.getFirewalledRequest(request);
+		request.addHeader("X-Custom", "abcd");
+		assertThrows(RequestRejectedException.class, () -> firewall.getFirewalledRequest(request));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenRuleReplacedThenNewRuleApplies() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setAllowedHeaderValues("X-Custom", "a"::equals);
+		firewall.setAllowedHeaderValues("X-CUSTOM", "b"::equals);
+		MockHttpServletRequest request = request();
+		request.addHeader("X-Custom", "b");
+		firewall.getFirewalledRequest(request);
+		MockHttpServletRequest rejected = request();
+		rejected.addHeader("X-Custom", "a");
+		assertThrows(RequestRejectedException.class, () -> firewall.getFirewalledRequest(rejected));
+	}
+
+	@Test
+	public void getFirewalledRequestWhenSkipThenValuesNeitherTestedNorPassedOn() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		List<String> tested = new ArrayList<>();
+		firewall.setAllowedHeaderValues(values -> {
+			values.forEach(tested::add);
+			return true;
+		});
+		firewall.setAllowedHeaderValues("X-Trusted", HeaderValueRule.skip());
+		MockHttpServletRequest request = request();
+		request.addHeader("X-Trusted", "\u0000");
+		request.addHeader("X-Other", "a");
+		firewall.getFirewalledRequest(request);
+		assertEquals(Collections.singletonList("a"), tested);
+	}
+
+	@Test
+	public void getFirewalledRequestWhenHeaderHasRuleThenLeftOutOfGenericPredicate() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		List<String> tested = new ArrayList<>();
+		firewall.setAllowedHeaderValues(values -> {
+			values.forEach(tested::add);
+			return true;
+		});
+		firewall.setAllowedHeaderValues("x-custom", "a"::equals);
+		MockHttpServletRequest request = request();
+		request.addHeader("X-Custom", "a");
+		request.addHeader("X-Custom", "a");
+		request.addHeader("X-Other", "b");
+		request.addHeader("X-Other", "c");
+		firewall.getFirewalledRequest(request);
+		assertEquals(Arrays.asList("b", "c"), tested);
+	}
+
+	@Test
+	public void getFirewalledRequestWhenHeaderHasNoValuesThenIteratorSkipsIt() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		AtomicReference<Iterable<String>> captured = new AtomicReference<>();
+		firewall.setAllowedHeaderValues(values -> {
+			captured.set(values);
+			return true;
+		});
+		MockHttpServletRequest request = request();
+		request.addHeader("X-Other", "a");
+		HttpServletRequest withEmptyHeader = withEmptyHeader(request, "X-Empty");
+		firewall.getFirewalledRequest(withEmptyHeader);
+
+		Iterator<String> values = captured.get().iterator();
+		assertTrue(values.hasNext());
+		assertTrue(values.hasNext());
+		assertEquals("a", values.next());
+		assertFalse(values.hasNext());
+		assertThrows(NoSuchElementException.class, values::next);
+
+		Iterator<String> unread = captured.get().iterator();
+		assertEquals("a", unread.next());
+		assertThrows(NoSuchElementException.class, unread::next);
+	}
+
+	@Test
+	public void getFirewalledRequestWhenOnlyHeaderHasNoValuesThenIteratorEmpty() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		AtomicReference<Iterable<String>> captured = new AtomicReference<>();
+		firewall.setAllowedHeaderValues(values -> {
+			captured.set(values);
+			return true;
+		});
+		firewall.getFirewalledRequest(withEmptyHeader(request(), "X-Empty"));
+		Iterator<String> values = captured.get().iterator();
+		assertFalse(values.hasNext());
+		assertThrows(NoSuchElementException.class, values::next);
+	}
+
+	private static MockHttpServletRequest request() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.setServletPath("/");
+		return request;
+	}
+
+	private static HttpServletRequest withEmptyHeader(HttpServletRequest request, String emptyHeader) {
+		return new HttpServletRequestWrapper(request) {
+			@Override
+			public Enumeration<String> getHeaderNames() {
+				List<String> names = new ArrayList<>();
+				names.add(emptyHeader);
+				names.addAll(Collections.list(super.getHeaderNames()));
+				names.add(emptyHeader);
+				return Collections.enumeration(names);
+			}
+
+			@Override
+			public Enumeration<String> getHeaders(String name) {
+				return emptyHeader.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+			}
+		};
+	}
+}
@@ -0,0 +1,170 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HostnameMatcher}
+ */
+public class HostnameMatcherTests {
+
+	@Test
+	public void testWhenExactHostnameThenMatchesIgnoringCaseAndTrailingDot() {
+		HostnameMatcher matcher = matcher("example.org");
+		assertTrue(matcher.test("example.org"));
+		assertTrue(matcher.test("EXAMPLE.org"));
+		assertTrue(matcher.test("example.org."));
+		assertFalse(matcher.test("www.example.org"));
+		assertFalse(matcher.test("xexample.org"));
+		assertFalse(matcher.test("example.or"));
+		assertFalse(matcher.test(null));
+		assertFalse(matcher.test(""));
+	}
+
+	@Test
+	public void testWhenWildcardThenMatchesSubdomainsOnly() {
+		HostnameMatcher matcher = matcher("*.example.org");
+		assertTrue(matcher.test("a.example.org"));
+		assertTrue(matcher.test("a.b.example.org"));
+		assertFalse(matcher.test("example.org"));
+		assertFalse(matcher.test(".example.org"));
+		assertFalse(matcher.test("evil-example.org"));
+		assertFalse(matcher.test("a..example.org"));
+		assertFalse(matcher.test("a/b.example.org"));
+	}
+
+	@Test
+	public void testWhenLabelStartsOrEndsWithHyphenThenNoMatch() {
+		HostnameMatcher matcher = matcher("*.example.org");
+		assertTrue(matcher.test("a-b.example.org"));
+		assertTrue(matcher.test("a_b.example.org"));
+		assertFalse(matcher.test("-.example.org"));
+		assertFalse(matcher.test("-a.example.org"));
+		assertFalse(matcher.test("a-.example.org"));
+		assertFalse(matcher.test("a.-b.example.org"));
+	}
+
+	@Test
+	public void constructorWhenLabelStartsOrEndsWithHyphenThenException() {
+		assertThrows(IllegalArgumentException.class, () -> matcher("-example.org"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("example-.org"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("*.-example.org"));
+	}
+
+	@Test
+	public void testWhenHostTooLongThenNoMatch() {
+		HostnameMatcher matcher = matcher("*.example.org");
+		char[] label = new char[250];
+		Arrays.fill(label, 'a');
+		assertFalse(matcher.test(new String(label) + ".example.org"));
+	}
+
+	@Test
+	public void testWhenIpv4ThenMatchesAddress() {
+		HostnameMatcher matcher = matcher("192.168.0.1", "10.0.0.255");
+		assertTrue(matcher.test("192.168.0.1"));
+		assertTrue(matcher.test("10.0.0.255"));
+		assertFalse(matcher.test("192.168.0.2"));
+		assertFalse(matcher.test("192.168.000.1"));
+		assertFalse(matcher.test("192.168.0"));
+		assertFalse(matcher.test("192.168.0.1.1"));
+		assertFalse(matcher.test("192.168.0.256"));
+	}
+
+	@Test
+	public void constructorWhenInvalidIpv4ThenException() {
+		assertThrows(IllegalArgumentException.class, () -> matcher("192.168.0.256"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("1.2.3.4."));
+	}
+
+	@Test
+	public void testWhenIpv6ThenMatchesAnySpellingOfAddress() {
+		HostnameMatcher matcher = matcher("[::1]", "[2001:db8::1]", "[::ffff:192.0.2.1]");
+		assertTrue(matcher.test("[::1]"));
+		assertTrue(matcher.test("[0:0:0:0:0:0:0:1]"));
+		assertTrue(matcher.test("[2001:DB8:0:0::1]"));
+		assertTrue(matcher.test("[::ffff:c000:201]"));
+		assertFalse(matcher.test("[::2]"));
+		assertFalse(matcher.test("[2001:db8::1:0]"));
+	}
+
+	@Test
+	public void constructorWhenInvalidIpv6ThenException() {
+		assertThrows(IllegalArgumentException.class, () -> matcher("[1::2::3]"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("[1:2:3:4:5:6:7:8:9]"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("[1:2:3:4:5:6:7]"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("[::1%eth0]"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("[1:2:3:4:5:6:7:1.2.3.4]"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("[12345::]"));
+	}
+
+	@Test
+	public void constructorWhenInvalidHostnameThenException() {
+		assertThrows(IllegalArgumentException.class, () -> matcher(""));
+		assertThrows(IllegalArgumentException.class, () -> matcher("exa mple.org"));
+		assertThrows(IllegalArgumentException.class, () -> matcher("*.*.example.org"));
+		assertThrows(IllegalArgumentException.class, () -> new HostnameMatcher(Collections.singletonList(null)));
+	}
+
+	@Test
+	public void testWhenManyHostsThenEachMatches() {
+		String[] hosts = new String[1000];
+		for (int i = 0; i < hosts.length; i++) {
+			hosts[i] = "*.tenant" + i + ".example.org";
+		}
+		HostnameMatcher matcher = matcher(hosts);
+		assertTrue(matcher.test("app.tenant0.example.org"));
+		assertTrue(matcher.test("app.tenant999.example.org"));
+		assertFalse(matcher.test("app.tenant1000.example.org"));
+	}
+
+	@Test
+	public void constructorWhenHostsCollideInFingerprintThenTablesNotShared() {
+		// same String hashCode, and so the same key in the shared rule tables
+		assertEquals("aan".hashCode(), "ac0".hashCode());
+		HostnameMatcher first = matcher("aan.example.org");
+		HostnameMatcher second = matcher("ac0.example.org");
+		assertTrue(first.test("aan.example.org"));
+		assertFalse(first.test("ac0.example.org"));
+		assertTrue(second.test("ac0.example.org"));
+		assertFalse(second.test("aan.example.org"));
+	}
+
+	@Test
+	public void constructorWhenSameHostsInAnotherOrderThenSameTables() {
+		HostnameMatcher first = matcher("*.example.org", "10.0.0.1", "[::1]");
+		HostnameMatcher second = matcher("[::1]", "10.0.0.1", "*.EXAMPLE.org");
+		assertArrayEquals(first.nodes(), second.nodes());
+		assertTrue(second.test("a.example.org"));
+		assertTrue(second.test("10.0.0.1"));
+		assertTrue(second.test("[0:0::1]"));
+	}
+
+	private static HostnameMatcher matcher(String... hosts) {
+		return new HostnameMatcher(Arrays.asList(hosts));
+	}
+}
@@ -0,0 +1,95 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link PathNormalization}
+ */
+public class PathNormalizationTests {
+
+	@Test
+	public void firstViolationWhenNormalizedThenNull() {
+		assertNull(PathNormalization.firstViolation(null));
+		assertNull(PathNormalization.firstViolation(""));
+		assertNull(PathNormalization.firstViolation("/a/b"));
+		assertNull(PathNormalization.firstViolation("/a/.b/..c/b.."));
+		assertNull(PathNormalization.firstViolation("/a/.../b"));
+	}
+
+	@Test
+	public void firstViolationWhenTraversalSegmentThenIndexAndType() {
+		PathNormalization.Violation current = PathNormalization.firstViolation("/a/./b");
+		assertEquals(3, current.getIndex());
+		assertEquals(PathNormalization.SegmentType.CURRENT_DIRECTORY, current.getSegmentType());
+		PathNormalization.Violation parent = PathNormalization.firstViolation("/a/b/..");
+		assertEquals(5, parent.getIndex());
+		assertEquals(PathNormalization.SegmentType.PARENT_DIRECTORY, parent.getSegmentType());
+		assertEquals(0, PathNormalization.firstViolation("..").getIndex());
+		assertEquals(0, PathNormalization.firstViolation("./a").getIndex());
+	}
+
+	@Test
+	public void normalizeWhenTraversalSegmentsThenRemoved() {
+		assertEquals("/a/b", normalize("/a/./b"));
+		assertEquals("/a/c", normalize("/a/b/../c"));
+		assertEquals("/c", normalize("/a/b/../../c"));
+		assertEquals("/a/.b/..c", normalize("/a/.b/./..c"));
+	}
+
+	@Test
+	public void normalizeWhenTrailingTraversalSegmentThenTrailingSlash() {
+		assertEquals("/a/", normalize("/a/."));
+		assertEquals("/a/", normalize("/a/b/.."));
+		assertEquals("/", normalize("/a/.."));
+		assertEquals("/", normalize("/."));
+	}
+
+	@Test
+	public void normalizeWhenEmptySegmentsThenKept() {
+		assertEquals("/a//b", normalize("/a//./b"));
+		assertEquals("/a/", normalize("/a/"));
+	}
+
+	@Test
+	public void normalizeWhenAboveRootThenNull() {
+		assertNull(normalize("/.."));
+		assertNull(normalize("/a/../.."));
+		assertNull(normalize("/a/../../b"));
+	}
+
+	@Test
+	public void normalizeWhenNotAbsoluteThenNull() {
+		assertNull(normalize(""));
+		assertNull(normalize("a/./b"));
+	}
+
+	@Test
+	public void normalizeWhenBufferReusedThenIndependentResults() {
+		StringBuilder buffer = new StringBuilder();
+		assertEquals("/a/long/path", PathNormalization.normalize("/a/long/./path", buffer));
+		assertEquals("/b", PathNormalization.normalize("/x/../b", buffer));
+	}
+
+	private static String normalize(String path) {
+		return PathNormalization.normalize(path, new StringBuilder());
+	}
+}
@@ -0,0 +1,203 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RejectionRecorder}
+ */
+public class RejectionRecorderTests {
+	private static final int MAX_RATE = (1 << 24) - 1;
+
+	@Test
+	public void recordWhenConcurrentThenEachSampleDrainedOnce() throws Exception {
+		ListSink sink = new ListSink();
+		RejectionRecorder recorder = new RejectionRecorder(sink, 1 << 16);
+		recorder.setMaxSamplesPerSecond(MAX_RATE);
+		List<String> expected = recordConcurrently(recorder, 8, 4000);
+		recorder.close();
+		assertEquals(8 * 4000, expected.size());
+		assertEquals(0, recorder.getDroppedCount());
+		assertSameSamples(expected, sink);
+	}
+
+	@Test
+	public void recordWhenConcurrentWithDrainerThenAcceptedSamplesDrainedOnce() throws Exception {
+		ListSink sink = new ListSink();
+		RejectionRecorder recorder = new RejectionRecorder(sink, 64);
+		recorder.setMaxSamplesPerSecond(MAX_RATE);
+		recorder.setDrainInterval(1, TimeUnit.MILLISECONDS);
+		recorder.start();
+		List<String> accepted = recordConcurrently(recorder, 4, 20000);
+		recorder.close();
+		assertEquals(4 * 20000 - accepted.size(), recorder.getDroppedCount());
+		assertSameSamples(accepted, sink);
+	}
+
+	@Test
+	public void recordWhenFullThenDroppedAndCounted() throws IOException {
+		ListSink sink = new ListSink();
+		RejectionRecorder recorder = new RejectionRecorder(sink, 3);
+		recorder.setMaxSamplesPerSecond(MAX_RATE);
+		// rounded up to 4
+		for (int i = 0; i < 4; i++) {
+			assertTrue(recorder.record(RejectionRule.HEADER_NAME, "t" + i, "/", "localhost"));
+		}
+		assertFalse(recorder.record(RejectionRule.HEADER_NAME, "t4", "/", "localhost"));
+		assertFalse(recorder.record(RejectionRule.HEADER_NAME, "t5", "/", "localhost"));
+		assertEquals(2, recorder.getDroppedCount());
+		recorder.close();
+		assertEquals(Arrays.asList("t0", "t1", "t2", "t3"), sink.tokens);
+	}
+
+	@Test
+	public void recordWhenRateExceededThenDroppedPerRule() throws IOException {
+		for (int attempt = 0;; attempt++) {
+			RejectionRecorder recorder = new RejectionRecorder(new ListSink());
+			recorder.setMaxSamplesPerSecond(3);
+			long second = System.currentTimeMillis() / 1000;
+			int headers = 0;
+			for (int i = 0; i < 5; i++) {
+				headers += recorder.record(RejectionRule.HEADER_NAME, null, "/", "localhost") ? 1 : 0;
+			}
+			boolean hostname = recorder.record(RejectionRule.HOSTNAME, null, "/", "localhost");
+			if (System.currentTimeMillis() / 1000 != second && attempt < 5) {
+				// the second rolled over, and with it the rate
+				continue;
+			}
+			assertEquals(3, headers);
+			assertTrue(hostname);
+			assertEquals(2, recorder.getDroppedCount());
+			return;
+		}
+	}
+
+	@Test
+	public void recordWhenLongUriAndHostThenTruncated() throws IOException {
+		ListSink sink = new ListSink();
+		RejectionRecorder recorder = new RejectionRecorder(sink);
+		recorder.record(RejectionRule.HOSTNAME, null, repeat('u', 300), repeat('h', 200));
+		recorder.close();
+		assertEquals(repeat('u', 256), sink.samples.get(0)[1]);
+		assertEquals(repeat('h', 128), sink.samples.get(0)[2]);
+		assertEquals(RejectionRule.HOSTNAME.name(), sink.samples.get(0)[3]);
+	}
+
+	@Test
+	public void setMaxSamplesPerSecondWhenAboveCountFieldThenException() {
+		RejectionRecorder recorder = new RejectionRecorder(new ListSink());
+		recorder.setMaxSamplesPerSecond(MAX_RATE);
+		assertThrows(IllegalArgumentException.class, () -> recorder.setMaxSamplesPerSecond(MAX_RATE + 1));
+		assertThrows(IllegalArgumentException.class, () -> recorder.setMaxSamplesPerSecond(-1));
+	}
+
+	@Test
+	public void startWhenClosedThenException() throws IOException {
+		ListSink sink = new ListSink();
+		RejectionRecorder recorder = new RejectionRecorder(sink);
+		recorder.start();
+		recorder.close();
+		recorder.close();
+		assertEquals(1, sink.closed);
+		assertThrows(IllegalStateException.class, recorder::start);
+	}
+
+	private static List<String> recordConcurrently(RejectionRecorder recorder, int threads, int samples)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch ready = new CountDownLatch(threads);
+		List<Future<List<String>>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			String prefix = "t" + t + "-";
+			futures.add(executor.submit(() -> {
+				List<String> accepted = new ArrayList<>();
+				ready.countDown();
+				ready.await();
+				for (int i = 0; i < samples; i++) {
+					String token = prefix + i;
+					if (recorder.record(RejectionRule.HEADER_VALUE, token, "/" + token, "localhost")) {
+						accepted.add(token);
+					}
+				}
+				return accepted;
+			}));
+		}
+		List<String> accepted = new ArrayList<>();
+		for (Future<List<String>> future : futures) {
+			accepted.addAll(future.get());
+		}
+		executor.shutdown();
+		return accepted;
+	}
+
+	private static void assertSameSamples(List<String> expected, ListSink sink) {
+		List<String> drained = sink.tokens;
+		assertEquals(expected.size(), drained.size());
+		for (String[] sample : sink.samples) {
+			// the slot was not overwritten while being drained
+			assertEquals("/" + sample[0], sample[1]);
+		}
+		Set<String> unique = new HashSet<>(drained);
+		assertEquals(drained.size(), unique.size());
+		assertEquals(new HashSet<>(expected), unique);
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static final class ListSink implements RejectionSink {
+		private final List<String> tokens = Collections.synchronizedList(new ArrayList<>());
+
+		private final List<String[]> samples = new ArrayList<>();
+
+		private int closed;
+
+		@Override
+		public void write(RejectionRecorder.Sample sample) {
+			this.tokens.add(sample.getToken());
+			this.samples.add(new String[] { sample.getToken(), sample.getUri(), sample.getHost(),
+					sample.getRule().name() });
+		}
+
+		@Override
+		public void close() {
+			this.closed++;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.Part;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockPart;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link RequestBodyInspector}
+ */
+public class RequestBodyInspectorTests {
+	private static final String BOUNDARY = "xyz";
+
+	private RequestBodyInspector inspector;
+
+	@Before
+	public void setup() {
+		this.inspector = new RequestBodyInspector();
+		HeaderValueRule word = HeaderValueRule.of(CharacterClass.range('a', 'z'), 8);
+		this.inspector.setAllowedJsonKeys(word);
+		this.inspector.setAllowedJsonStringValues(word);
+		this.inspector.setAllowedPartNames(word);
+		this.inspector.setAllowedFilenames(HeaderValueRule.of(CharacterClass.range('a', 'z').or(CharacterClass.of("."))));
+	}
+
+	@Test
+	public void inspectWhenNotInspectedContentTypeThenNotRead() throws IOException {
+		MockHttpServletRequest request = request("text/plain", "{\"KEY\":1}");
+		assertNull(this.inspector.inspect(request));
+		assertEquals('{', request.getInputStream().read());
+	}
+
+	@Test
+	public void inspectWhenJsonAllowedThenBodyKeptForReplay() throws IOException {
+		String json = "{\"key\": [\"one\", {\"two\": \"three\"}], \"four\": 4, \"five\": true}";
+		RequestBodyInspector.Inspection inspection = this.inspector.inspect(request("application/json", json));
+		assertNull(inspection.getViolation());
+		assertArrayEquals(json.getBytes(StandardCharsets.UTF_8),
+				Arrays.copyOf(inspection.getBody(), inspection.getLength()));
+	}
+
+	@Test
+	public void inspectWhenJsonKeyNotAllowedThenViolation() throws IOException {
+		assertEquals("a JSON key is not allowed", violation("application/json", "{\"key\": 1, \"BAD\": 2}"));
+		assertEquals("a JSON key is not allowed", violation("application/json", "[{\"key\": {\"BAD\": 1}}]"));
+		assertEquals("a JSON key is not allowed", violation("application/problem+json", "{\"toolongkey\": 1}"));
+	}
+
+	@Test
+	public void inspectWhenJsonStringValueNotAllowedThenViolation() throws IOException {
+		assertEquals("a JSON string value is not allowed", violation("application/json", "{\"key\": \"BAD\"}"));
+		assertEquals("a JSON string value is not allowed", violation("application/json", "[\"ok\", \"BAD\"]"));
+		// after a colon, a string is a value even though the object expects keys again after a comma
+		assertEquals("a JSON string value is not allowed", violation("application/json", "{\"a\": {\"b\": 1}, \"c\": \"D\"}"));
+	}
+
+	@Test
+	public void inspectWhenJsonEscapesThenCheckedDecoded() throws IOException {
+		assertNull(violation("application/json", "{\"key\": \"\\u0061\\u0062c\"}"));
+		assertEquals("a JSON string value is not allowed", violation("application/json", "{\"key\": \"a\\u002e\"}"));
+		assertEquals("a JSON string value is not allowed", violation("application/json", "{\"key\": \"a\\nb\"}"));
+		assertEquals("a JSON key is not allowed", violation("application/json", "{\"k\\\"\": 1}"));
+		// an escaped quote does not end the string
+		assertEquals("a JSON string value is not allowed", violation("application/json", "{\"key\": \"a\\\" \"}"));
+	}
+
+	@Test
+	public void inspectWhenJsonTooDeepThenViolation() throws IOException {
+		StringBuilder json = new StringBuilder();
+		for (int i = 0; i < 65; i++) {
+			json.append('[');
+		}
+		assertEquals("the JSON is nested more than 64 levels deep", violation("application/json", json.toString()));
+		assertNull(violation("application/json", json.substring(1)));
+	}
+
+	@Test
+	public void inspectWhenBodyLargerThanMaxThenViolation() throws IOException {
+		this.inspector.setMaxBodySize(8);
+		assertEquals("the body is larger than 8 bytes", violation("application/json", "{\"key\": 12}"));
+		assertNull(violation("application/json", "{\"a\": 1}"));
+	}
+
+	@Test
+	public void inspectWhenChunkedBodyLargerThanMaxThenViolation() throws IOException {
+		this.inspector.setMaxBodySize(8);
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/") {
+			@Override
+			public long getContentLengthLong() {
+				return -1;
+			}
+		};
+		request.setContentType("application/json");
+		request.setContent("{\"key\": 12}".getBytes(StandardCharsets.UTF_8));
+		assertEquals("the body is larger than 8 bytes", this.inspector.inspect(request).getViolation());
+	}
+
+	@Test
+	public void inspectWhenBodyAlreadyReadThenViolation() throws IOException {
+		MockHttpServletRequest request = request("application/json", "{\"key\": 1}");
+		while (request.getInputStream().read() != -1) {
+		}
+		assertEquals("the body was already read", this.inspector.inspect(request).getViolation());
+	}
+
+	@Test
+	public void inspectWhenMultipartAllowedThenBodyKeptForReplay() throws IOException {
+		String body = multipart("Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"",
+				"--xyzzy is not a delimiter\r\nBAD content");
+		RequestBodyInspector.Inspection inspection = this.inspector.inspect(streamed(body));
+		assertNull(inspection.getViolation());
+		assertEquals(body, new String(inspection.getBody(), 0, inspection.getLength(), StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void inspectWhenPartNameOrFilenameNotAllowedThenViolation() throws IOException {
+		assertEquals("a part name is not allowed",
+				multipartViolation(multipart("Content-Disposition: form-data; name=\"BAD\"", "")));
+		assertEquals("a filename is not allowed", multipartViolation(
+				multipart("content-disposition: form-data; name=\"file\"; filename=\"../a.txt\"", "")));
+		assertEquals("a filename is not allowed", multipartViolation(
+				multipart("Content-Disposition: form-data; name=\"file\"; filename*=UTF-8''a%2F.txt", "")));
+		assertEquals("a filename is not allowed", multipartViolation(
+				multipart("Content-Disposition: form-data; name=\"file\"; filename=\"a\\\"b\"", "")));
+	}
+
+	@Test
+	public void inspectWhenPartHeaderFoldedThenCheckedUnfolded() throws IOException {
+		assertEquals("a filename is not allowed", multipartViolation(
+				multipart("Content-Disposition: form-data; name=\"file\";\r\n\tfilename=\"../a.txt\"", "")));
+		assertEquals("a part name is not allowed",
+				multipartViolation(multipart("Content-Disposition: form-data;\r\n name=\"BAD\"", "")));
+	}
+
+	@Test
+	public void inspectWhenDelimiterHasTransportPaddingThenDelimiter() throws IOException {
+		String body = "--xyz \t\r\nContent-Disposition: form-data; name=\"BAD\"\r\n\r\nvalue\r\n--xyz--\r\n";
+		assertEquals("a part name is not allowed", multipartViolation(body));
+	}
+
+	@Test
+	public void inspectWhenPartHeaderTooLongThenViolation() throws IOException {
+		char[] value = new char[8 * 1024];
+		Arrays.fill(value, 'a');
+		String body = multipart("X-Padding: " + new String(value), "");
+		assertEquals("a part header is longer than 8192 bytes", multipartViolation(body));
+	}
+
+	@Test
+	public void inspectWhenMultipartEndsBeforeCloseDelimiterThenViolation() throws IOException {
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"file\"\r\n\r\nvalue\r\n";
+		assertEquals("the multipart body ends before its close delimiter", multipartViolation(body));
+	}
+
+	@Test
+	public void inspectWhenMultipartWithoutBoundaryThenViolation() throws IOException {
+		assertEquals("the multipart body has no boundary", violation("multipart/form-data", multipart("", "")));
+	}
+
+	@Test
+	public void inspectWhenContainerParsesPartsThenPartsInspectedAndBodyNotRead() throws IOException {
+		MockHttpServletRequest request = request("multipart/form-data; boundary=" + BOUNDARY, "unread");
+		request.addPart(new MockPart("file", "a.txt", new byte[0]));
+		assertNull(this.inspector.inspect(request));
+		assertEquals('u', request.getInputStream().read());
+
+		request.addPart(new MockPart("other", "../a.txt", new byte[0]));
+		assertEquals("a filename is not allowed", this.inspector.inspect(request).getViolation());
+	}
+
+	@Test
+	public void parameterWhenQuotedThenUnescaped() {
+		String header = "form-data; name=\"a;b\"; filename=\"c\\\"d\"; size=3";
+		assertEquals("a;b", RequestBodyInspector.parameter(header, "name"));
+		assertEquals("c\"d", RequestBodyInspector.parameter(header, "FILENAME"));
+		assertEquals("3", RequestBodyInspector.parameter(header, "size"));
+		assertNull(RequestBodyInspector.parameter(header, "missing"));
+		assertNull(RequestBodyInspector.parameter("form-data", "name"));
+	}
+
+	private String violation(String contentType, String body) throws IOException {
+		return this.inspector.inspect(request(contentType, body)).getViolation();
+	}
+
+	private String multipartViolation(String body) throws IOException {
+		return this.inspector.inspect(streamed(body)).getViolation();
+	}
+
+	private static String multipart(String headers, String content) {
+		return "preamble\r\n--" + BOUNDARY + "\r\n" + headers + "\r\n\r\n" + content + "\r\n--" + BOUNDARY
+				+ "--\r\nepilogue";
+	}
+
+	/**
+	 * A multipart request that the container does not parse, as when it has no multipart
+	 * configuration
+	 */
+	private static HttpServletRequest streamed(String body) {
+		return new HttpServletRequestWrapper(request("multipart/form-data; boundary=" + BOUNDARY, body)) {
+			@Override
+			public Collection<Part> getParts() {
+				throw new IllegalStateException("No multipart configuration");
+			}
+		};
+	}
+
+	private static MockHttpServletRequest request(String contentType, String body) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+		request.setContentType(contentType);
+		request.setContent(body.getBytes(StandardCharsets.ISO_8859_1));
+		return request;
+	}
+}
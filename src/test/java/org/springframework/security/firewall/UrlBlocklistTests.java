@@ -0,0 +1,128 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link UrlBlocklist}
+ */
+public class UrlBlocklistTests {
+
+	@Test
+	public void findWhenTokensAddedAcrossThresholdThenAgreesWithLinearScan() {
+		UrlBlocklist blocklist = new UrlBlocklist(Collections.emptyList());
+		List<String> values = values();
+		for (int i = 0; i < UrlBlocklist.PREFILTER_THRESHOLD * 2; i++) {
+			blocklist.add(token(i));
+			assertAgreesWithLinearScan(blocklist, values);
+		}
+	}
+
+	@Test
+	public void findWhenTokensRemovedAcrossThresholdThenAgreesWithLinearScan() {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < UrlBlocklist.PREFILTER_THRESHOLD + 8; i++) {
+			tokens.add(token(i));
+		}
+		UrlBlocklist blocklist = new UrlBlocklist(tokens);
+		List<String> values = values();
+		assertAgreesWithLinearScan(blocklist, values);
+		Collections.shuffle(tokens, new Random(7));
+		for (String token : tokens) {
+			blocklist.remove(token);
+			assertFalse(token.equals(blocklist.find(token)));
+			assertAgreesWithLinearScan(blocklist, values);
+		}
+	}
+
+	@Test
+	public void findWhenRemovedThroughIteratorOrClearedThenRebuilt() {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < UrlBlocklist.PREFILTER_THRESHOLD * 2; i++) {
+			tokens.add(token(i));
+		}
+		UrlBlocklist blocklist = new UrlBlocklist(tokens);
+		List<String> values = values();
+		assertAgreesWithLinearScan(blocklist, values);
+		for (Iterator<String> iterator = blocklist.iterator(); iterator.hasNext();) {
+			if (iterator.next().length() % 2 == 0) {
+				iterator.remove();
+			}
+		}
+		assertAgreesWithLinearScan(blocklist, values);
+		blocklist.clear();
+		for (String value : values) {
+			assertNull(blocklist.find(value));
+		}
+		assertEquals(0, blocklist.forbiddenMask()[0]);
+	}
+
+	@Test
+	public void forbiddenMaskWhenTokenAddedAfterCompiledThenRebuilt() {
+		UrlBlocklist blocklist = new UrlBlocklist(Collections.singletonList(";"));
+		assertEquals(1L << ';', blocklist.forbiddenMask()[0]);
+		blocklist.add("%2f");
+		assertEquals((1L << ';') | (1L << '/'), blocklist.forbiddenMask()[0]);
+	}
+
+	private static void assertAgreesWithLinearScan(UrlBlocklist blocklist, List<String> values) {
+		for (String value : values) {
+			String found = blocklist.find(value);
+			boolean contained = false;
+			for (String token : blocklist) {
+				contained |= value.contains(token);
+			}
+			String message = blocklist.size() + " tokens, value '" + value + "', found '" + found + "'";
+			if (contained) {
+				assertTrue(message, found != null && blocklist.contains(found) && value.contains(found));
+			} else {
+				assertNull(message, found);
+			}
+		}
+	}
+
+	/**
+	 * Tokens of several lengths, some of which contain others
+	 */
+	private static String token(int i) {
+		return "%" + Integer.toHexString(i) + (i % 3 == 0 ? "" : "/" + i);
+	}
+
+	private static List<String> values() {
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < UrlBlocklist.PREFILTER_THRESHOLD * 2 + 8; i++) {
+			values.add("/a" + token(i));
+			values.add("/a%" + i);
+		}
+		values.add("");
+		values.add("/");
+		return values;
+	}
+}
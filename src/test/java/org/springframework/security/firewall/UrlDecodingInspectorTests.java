@@ -0,0 +1,88 @@
+package org.springframework.security.firewall;
+
+/*
+ * Copyright 2012-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link UrlDecodingInspector}
+ */
+public class UrlDecodingInspectorTests {
+	private final long[] forbidden = UrlDecodingInspector.forbiddenMask(
+			Arrays.asList(".", "%2e", "%2E", ";", "%3b", "%2f", "%00", "%25", "%"));
+
+	@Test
+	public void forbiddenMaskWhenPercentThenNotForbidden() {
+		long[] mask = UrlDecodingInspector.forbiddenMask(Arrays.asList("%", "%25", "%2f", "//"));
+		assertEquals(0, mask[0] & (1L << '%'));
+		assertEquals(1L << '/', mask[0]);
+		assertEquals(0, mask[1]);
+	}
+
+	@Test
+	public void inspectWhenNoPercentThenNoViolation() {
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect(null, 1));
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a/b;c", 1));
+	}
+
+	@Test
+	public void inspectWhenForbiddenAtFirstLayerThenFirstLayer() {
+		assertEquals(1, inspect("/a%2e", 1));
+		assertEquals(1, inspect("/a%2E", 4));
+		assertEquals(1, inspect("/a%3B", 2));
+	}
+
+	@Test
+	public void inspectWhenForbiddenAtSecondLayerThenSecondLayer() {
+		assertEquals(2, inspect("/a%252e", 2));
+		assertEquals(2, inspect("/a%25%32%65", 2));
+	}
+
+	@Test
+	public void inspectWhenEncodedMoreThanDepthThenDepthPlusOne() {
+		assertEquals(2, inspect("/a%2520b", 1));
+		assertEquals(2, inspect("/a%25252e", 1));
+	}
+
+	@Test
+	public void inspectWhenAllowedWithinDepthThenNoViolation() {
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a%2520b", 2));
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a%41", 1));
+	}
+
+	@Test
+	public void inspectWhenIncompleteOrInvalidEscapeThenNoViolation() {
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a%", 1));
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a%2", 1));
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a%zz", 1));
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/a%252", 2));
+	}
+
+	@Test
+	public void inspectWhenNonLatinCharactersThenStillInspected() {
+		assertEquals(1, inspect("/\u00e9\u4e2d%2e", 1));
+		assertEquals(UrlDecodingInspector.NO_VIOLATION, inspect("/%\u4e2de", 1));
+	}
+
+	private int inspect(String value, int depth) {
+		return UrlDecodingInspector.inspect(value, depth, this.forbidden[0], this.forbidden[1]);
+	}
+}
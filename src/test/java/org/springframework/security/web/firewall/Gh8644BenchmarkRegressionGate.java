@@ -0,0 +1,301 @@
+package org.springframework.security.web.firewall;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs a fixed subset of the firewall benchmarks with the GC profiler and fails when
+ * throughput or allocation per operation regresses past a tolerance from a stored
+ * baseline. Run it with {@code mvn verify -Pbenchmark-regression}.
+ *
+ * <p>
+ * Results are read back from the JMH JSON output, and so the comparison can also be run
+ * against an existing result file by setting {@code firewall.regression.results}. The gate
+ * fails when there is no baseline. With {@code firewall.regression.updateBaseline} set to
+ * true, the results are instead written to {@code target/benchmark-baseline.properties},
+ * to be reviewed and copied over the committed baseline.
+ */
+public class Gh8644BenchmarkRegressionGate {
+	private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+	private static final String[] BENCHMARKS = {
+			Gh8644StrictHttpFirewallTests.class.getName() + ".checkingAllChars"
+	};
+
+	public static void main(String[] args) throws Exception {
+		Path baseline = Paths.get(System.getProperty("firewall.regression.baseline",
+				"src/test/resources/benchmark-baseline.properties"));
+		double throughputTolerance = Double.parseDouble(System.getProperty("firewall.regression.throughputTolerance", "0.10"));
+		double allocationTolerance = Double.parseDouble(System.getProperty("firewall.regression.allocationTolerance", "0.05"));
+		double allocationSlack = Double.parseDouble(System.getProperty("firewall.regression.allocationSlack", "16"));
+		boolean updateBaseline = Boolean.getBoolean("firewall.regression.updateBaseline");
+		Path updatedBaseline = Paths.get(System.getProperty("firewall.regression.updatedBaseline",
+				"target/benchmark-baseline.properties"));
+		if (!updateBaseline && !Files.exists(baseline)) {
+			System.err.println("No benchmark baseline in " + baseline + ". Run with -Dfirewall.regression.updateBaseline=true"
+					+ " to write one to " + updatedBaseline + ", then review and commit it as " + baseline);
+			System.exit(1);
+		}
+
+		String existing = System.getProperty("firewall.regression.results");
+		Path results = existing != null ? Paths.get(existing) : run(Paths.get("target", "jmh-regression.json"));
+		Map<String, Double> measured = parse(results);
+
+		if (updateBaseline) {
+			store(updatedBaseline, measured);
+			System.out.println("Stored benchmark baseline in " + updatedBaseline
+					+ ". Review it and copy it to " + baseline + " to make it the baseline");
+			return;
+		}
+
+		Map<String, Double> expected = load(baseline);
+		List<String> regressions = new ArrayList<>();
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			String key = entry.getKey();
+			double before = entry.getValue();
+			Double after = measured.get(key);
+			if (after == null) {
+				regressions.add(key + " was not measured");
+			} else if (key.endsWith(".ops") && after < before * (1 - throughputTolerance)) {
+				regressions.add(String.format("%s dropped from %.1f to %.1f ops/s", key, before, after));
+			} else if (key.endsWith(".bytes") && after > before * (1 + allocationTolerance) + allocationSlack) {
+				regressions.add(String.format("%s grew from %.1f to %.1f B/op", key, before, after));
+			} else {
+				System.out.println(String.format("%s: %.1f (baseline %.1f)", key, after, before));
+			}
+		}
+		if (!regressions.isEmpty()) {
+			regressions.forEach(regression -> System.err.println("Regression: " + regression));
+			System.exit(1);
+		}
+	}
+
+	private static Path run(Path results) throws Exception {
+		Files.createDirectories(results.getParent());
+		OptionsBuilder builder = new OptionsBuilder();
+		for (String benchmark : BENCHMARKS) {
+			builder.include(benchmark.replace(".", "\\.") + "$");
+		}
+		Options options = builder
+				.addProfiler(GCProfiler.class)
+				.forks(1)
+				.warmupIterations(5)
+				.measurementIterations(5)
+				.resultFormat(ResultFormatType.JSON)
+				.result(results.toString())
+				.build();
+		new Runner(options).run();
+		return results;
+	}
+
+	/**
+	 * Reads the throughput and allocation per operation of each benchmark and parameter
+	 * combination from JMH JSON output
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Double> parse(Path results) throws IOException {
+		String json = new String(Files.readAllBytes(results), StandardCharsets.UTF_8);
+		Map<String, Double> measured = new TreeMap<>();
+		for (Object element : (List<Object>) new Json(json).parse()) {
+			Map<String, Object> result = (Map<String, Object>) element;
+			StringBuilder key = new StringBuilder((String) result.get("benchmark"));
+			Map<String, Object> params = (Map<String, Object>) result.get("params");
+			if (params != null) {
+				new TreeMap<>(params).forEach((name, value) -> key.append('[').append(name).append('=').append(value).append(']'));
+			}
+			Map<String, Object> primary = (Map<String, Object>) result.get("primaryMetric");
+			measured.put(key + ".ops", score(primary));
+			Map<String, Object> secondary = (Map<String, Object>) result.get("secondaryMetrics");
+			if (secondary != null) {
+				secondary.forEach((name, metric) -> {
+					if (name.endsWith(ALLOCATION_METRIC)) {
+						measured.put(key + ".bytes", score((Map<String, Object>) metric));
+					}
+				});
+			}
+		}
+		return measured;
+	}
+
+	private static Double score(Map<String, Object> metric) {
+		Object score = metric.get("score");
+		// JMH writes scores that are not numbers, like NaN, as strings
+		return score instanceof Double ? (Double) score : Double.valueOf(String.valueOf(score));
+	}
+
+	private static Map<String, Double> load(Path baseline) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream input = Files.newInputStream(baseline)) {
+			properties.load(input);
+		}
+		Map<String, Double> values = new TreeMap<>();
+		properties.stringPropertyNames().forEach(name -> values.put(name, Double.valueOf(properties.getProperty(name))));
+		return values;
+	}
+
+	private static void store(Path baseline, Map<String, Double> measured) throws IOException {
+		Properties properties = new Properties();
+		measured.forEach((key, value) -> properties.setProperty(key, String.valueOf(value)));
+		if (baseline.getParent() != null) {
+			Files.createDirectories(baseline.getParent());
+		}
+		try (OutputStream output = Files.newOutputStream(baseline)) {
+			properties.store(output, "Firewall benchmark baseline, see Gh8644BenchmarkRegressionGate");
+		}
+	}
+
+	/**
+	 * Just enough of a JSON parser to read JMH results
+	 */
+	private static class Json {
+		private final String text;
+
+		private int position;
+
+		Json(String text) {
+			this.text = text;
+		}
+
+		Object parse() {
+			skipWhitespace();
+			char c = this.text.charAt(this.position);
+			if (c == '{') {
+				return parseObject();
+			}
+			if (c == '[') {
+				return parseArray();
+			}
+			if (c == '"') {
+				return parseString();
+			}
+			if (this.text.startsWith("true", this.position)) {
+				this.position += 4;
+				return Boolean.TRUE;
+			}
+			if (this.text.startsWith("false", this.position)) {
+				this.position += 5;
+				return Boolean.FALSE;
+			}
+			if (this.text.startsWith("null", this.position)) {
+				this.position += 4;
+				return null;
+			}
+			return parseNumber();
+		}
+
+		private Map<String, Object> parseObject() {
+			Map<String, Object> object = new LinkedHashMap<>();
+			this.position++;
+			skipWhitespace();
+			if (this.text.charAt(this.position) == '}') {
+				this.position++;
+				return object;
+			}
+			for (;;) {
+				skipWhitespace();
+				String name = parseString();
+				skipWhitespace();
+				expect(':');
+				object.put(name, parse());
+				skipWhitespace();
+				if (this.text.charAt(this.position++) == '}') {
+					return object;
+				}
+			}
+		}
+
+		private List<Object> parseArray() {
+			List<Object> array = new ArrayList<>();
+			this.position++;
+			skipWhitespace();
+			if (this.text.charAt(this.position) == ']') {
+				this.position++;
+				return array;
+			}
+			for (;;) {
+				array.add(parse());
+				skipWhitespace();
+				if (this.text.charAt(this.position++) == ']') {
+					return array;
+				}
+			}
+		}
+
+		private String parseString() {
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			for (char c = this.text.charAt(this.position++); c != '"'; c = this.text.charAt(this.position++)) {
+				if (c == '\\') {
+					char escaped = this.text.charAt(this.position++);
+					switch (escaped) {
+					case 'n':
+						value.append('\n');
+						break;
+					case 't':
+						value.append('\t');
+						break;
+					case 'r':
+						value.append('\r');
+						break;
+					case 'b':
+						value.append('\b');
+						break;
+					case 'f':
+						value.append('\f');
+						break;
+					case 'u':
+						value.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+						this.position += 4;
+						break;
+					default:
+						value.append(escaped);
+					}
+				} else {
+					value.append(c);
+				}
+			}
+			return value.toString();
+		}
+
+		private Object parseNumber() {
+			int start = this.position;
+			while (this.position < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.position)) != -1) {
+				this.position++;
+			}
+			String number = this.text.substring(start, this.position);
+			if (number.isEmpty()) {
+				throw new IllegalArgumentException("Unexpected character at " + start);
+			}
+			return Double.valueOf(number);
+		}
+
+		private void expect(char c) {
+			if (this.text.charAt(this.position++) != c) {
+				throw new IllegalArgumentException("Expected '" + c + "' at " + (this.position - 1));
+			}
+		}
+
+		private void skipWhitespace() {
+			while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+				this.position++;
+			}
+		}
+	}
+}
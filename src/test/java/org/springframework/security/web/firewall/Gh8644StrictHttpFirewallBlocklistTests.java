@@ -0,0 +1,64 @@
+package org.springframework.security.web.firewall;
+
+import java.util.Random;
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.firewall.Gh8644StrictHttpFirewall;
+
+/**
+ * Measures how the cost of checking a URL grows with the number of custom blocklist
+ * tokens, like scanner signatures, which should be roughly flat
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+public class Gh8644StrictHttpFirewallBlocklistTests {
+	@Param({
+			"10",
+			"1000",
+			"10000"
+	})
+	private int tokens;
+
+	private final HttpServletRequest request = request();
+
+	private Gh8644StrictHttpFirewall firewall;
+
+	@Setup
+	public void blocklist() {
+		this.firewall = new Gh8644StrictHttpFirewall();
+		Random random = new Random(42);
+		for (int i = 0; i < this.tokens; i++) {
+			String token = "/" + Long.toHexString(random.nextLong()).substring(0, 4 + random.nextInt(8)) + ".php";
+			this.firewall.getEncodedUrlBlocklist().add(token);
+			this.firewall.getDecodedUrlBlocklist().add(token);
+		}
+	}
+
+	@Benchmark
+	public HttpServletRequest checkingBlocklist() {
+		return this.firewall.getFirewalledRequest(this.request);
+	}
+
+	private static MockHttpServletRequest request() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setMethod("GET");
+		request.setRequestURI("/api/v1/customers/12345/orders/67890/items");
+		request.setServletPath("/api/v1/customers/12345/orders/67890/items");
+		return request;
+	}
+
+	public static void main(String[] args) throws Exception {
+		org.openjdk.jmh.Main.main(args);
+	}
+}
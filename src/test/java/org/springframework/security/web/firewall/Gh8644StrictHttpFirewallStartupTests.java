@@ -0,0 +1,120 @@
+package org.springframework.security.web.firewall;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.firewall.CompiledFirewallRules;
+import org.springframework.security.firewall.Gh8644StrictHttpFirewall;
+import org.springframework.security.firewall.HostnameMatcher;
+
+/**
+ * Measures the time from constructing a firewall to validating its first request, as a
+ * freshly started pod would, so each measurement is a single shot in a fresh fork.
+ *
+ * <p>
+ * The setup must not touch any firewall class, or else class loading and static
+ * initialization would happen before the shot. So the compiled rules are written by
+ * {@link CompileRules} in a separate JVM, as they would be at build time.
+ */
+@State(Scope.Benchmark)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Gh8644StrictHttpFirewallStartupTests {
+	private static final int TENANTS = 5000;
+
+	private final HttpServletRequest request = request();
+
+	private List<String> tenants;
+
+	private byte[] compiled;
+
+	@Setup
+	public void compile() throws Exception {
+		this.tenants = tenants();
+		Path rules = Files.createTempFile("firewall-rules", ".bin");
+		try {
+			String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					CompileRules.class.getName(), rules.toString()).inheritIO().start();
+			if (process.waitFor() != 0) {
+				throw new IllegalStateException("Could not compile the firewall rules");
+			}
+			this.compiled = Files.readAllBytes(rules);
+		} finally {
+			Files.delete(rules);
+		}
+	}
+
+	@Benchmark
+	public HttpServletRequest constructingDefaults() {
+		return new Gh8644StrictHttpFirewall().getFirewalledRequest(this.request);
+	}
+
+	@Benchmark
+	public HttpServletRequest compilingHostnames() {
+		Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+		firewall.setAllowedHostnames(new HostnameMatcher(this.tenants));
+		return firewall.getFirewalledRequest(this.request);
+	}
+
+	@Benchmark
+	public HttpServletRequest loadingCompiledHostnames() {
+		CompiledFirewallRules rules = CompiledFirewallRules.read(this.compiled);
+		return new Gh8644StrictHttpFirewall(rules).getFirewalledRequest(this.request);
+	}
+
+	private static List<String> tenants() {
+		List<String> tenants = new ArrayList<>();
+		for (int i = 0; i < TENANTS; i++) {
+			tenants.add("*.tenant" + i + ".example.org");
+		}
+		return tenants;
+	}
+
+	private static MockHttpServletRequest request() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setMethod("GET");
+		request.setServerName("app.tenant42.example.org");
+		request.setRequestURI("/uri");
+		request.setParameter("p", "v");
+		return request;
+	}
+
+	/**
+	 * Writes the compiled rules for the tenants to the given file
+	 */
+	public static class CompileRules {
+		public static void main(String[] args) throws Exception {
+			Gh8644StrictHttpFirewall firewall = new Gh8644StrictHttpFirewall();
+			firewall.setAllowedHostnames(new HostnameMatcher(tenants()));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			CompiledFirewallRules.compile(firewall).writeTo(bytes);
+			Files.write(Paths.get(args[0]), bytes.toByteArray());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		org.openjdk.jmh.Main.main(args);
+	}
+}